@@ -0,0 +1,74 @@
+package brunocamarggo.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end runs of the corpus: scan, parse, resolve and execute on a
+ * fresh interpreter each time, so no globals leak between invocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterpreterBenchmark {
+
+    @Param({"fib", "loops", "strings", "closures", "collections"})
+    String program;
+
+    private final ErrorReporter reporter = new ErrorReporter(System.err);
+    private String source;
+    private CompiledScript compiled;
+
+    @Setup
+    public void setup() {
+        source = Programs.load(program);
+        compiled = new LoxEngine().compile(source);
+    }
+
+    @Benchmark
+    public Interpreter interpret() {
+        var statements = new Parser(new Scanner(source, reporter).scanTokens(), reporter).parse();
+        var interpreter = new Interpreter(new Output(System.out));
+        new Resolver(interpreter.globals, reporter).resolve(statements);
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+
+    /** Like interpret(), but with the scan, parse and resolve done once in setup. */
+    @Benchmark
+    public LoxContext.Result compiled() {
+        return new LoxEngine().newContext(System.out, System.err).run(compiled);
+    }
+
+    @Benchmark
+    public VM vm() {
+        var statements = new Parser(new Scanner(source, reporter).scanTokens(), reporter).parse();
+        var vm = new VM(new Output(System.out));
+        new Resolver(vm.globals, reporter).resolve(statements);
+        vm.interpret(new Compiler(vm.globals, reporter).compile(statements));
+        return vm;
+    }
+
+    @Benchmark
+    public NodeInterpreter nodes() {
+        var statements = new Parser(new Scanner(source, reporter).scanTokens(), reporter).parse();
+        var interpreter = new NodeInterpreter(new Output(System.out));
+        new Resolver(interpreter.globals, reporter).resolve(statements);
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+}
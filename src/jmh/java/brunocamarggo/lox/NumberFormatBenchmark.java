@@ -0,0 +1,66 @@
+package brunocamarggo.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting numbers for print and concatenation, against the
+ * Double.toString-and-trim stringify used to do for every number.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumberFormatBenchmark {
+
+    @Param({"counters", "integers", "fractions"})
+    String values;
+
+    private double[] numbers;
+
+    @Setup
+    public void setup() {
+        var random = new SplittableRandom(42);
+        numbers = new double[1024];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = switch (values) {
+                case "counters" -> i;
+                case "integers" -> random.nextInt(-5_000_000, 5_000_000);
+                default -> random.nextInt(-5_000_000, 5_000_000) / 8.0;
+            };
+        }
+    }
+
+    @Benchmark
+    public void stringify(Blackhole blackhole) {
+        for (double number : numbers) {
+            blackhole.consume(Interpreter.stringify(number));
+        }
+    }
+
+    @Benchmark
+    public void toStringAndTrim(Blackhole blackhole) {
+        for (double number : numbers) {
+            var text = Double.toString(number);
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            blackhole.consume(text);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package brunocamarggo.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads the Lox corpus the benchmarks run against from src/jmh/resources/bench.
+ */
+final class Programs {
+
+    private Programs() {}
+
+    static String load(String name) {
+        var path = "/bench/" + name + ".lox";
+        try (var stream = Programs.class.getResourceAsStream(path)) {
+            if (stream == null) {
+                throw new IllegalArgumentException("No benchmark program " + path);
+            }
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package brunocamarggo.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start of a script file: each measurement is a single call in a
+ * freshly forked JVM, comparing the scan and parse runFile does against
+ * loading the parse from a snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class SnapshotBenchmark {
+
+    @Param({"fib", "loops", "strings", "closures"})
+    String program;
+
+    private final ErrorReporter reporter = new ErrorReporter(System.err);
+    private Path directory;
+    private Path script;
+    private Path snapshot;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("lox-snapshot");
+        script = directory.resolve(program + ".lox");
+        Files.writeString(script, Programs.load(program));
+        snapshot = AstSnapshot.pathFor(script);
+        var bytes = Files.readAllBytes(script);
+        var statements = new Parser(new Scanner(new String(bytes, StandardCharsets.UTF_8), reporter).scanTokens(), reporter).parse();
+        AstSnapshot.save(snapshot, ScriptCache.sha256(bytes), statements);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(snapshot);
+        Files.deleteIfExists(script);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public List<Stmt> parseSource() throws IOException {
+        var bytes = Files.readAllBytes(script);
+        var tokens = new Scanner(new String(bytes, StandardCharsets.UTF_8), reporter).scanTokens();
+        return new Parser(tokens, reporter).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> loadSnapshot() throws IOException {
+        var bytes = Files.readAllBytes(script);
+        return AstSnapshot.load(snapshot, ScriptCache.sha256(bytes));
+    }
+}
@@ -0,0 +1,148 @@
+package brunocamarggo.lox;
+
+import java.util.List;
+
+/**
+ * Copies a resolved syntax tree. The copy keeps what the Resolver filled
+ * in but starts with empty caches, so it can run while other copies of
+ * the same tree run elsewhere. Functions keep their JitState, so what
+ * the Jit compiles for one copy serves them all.
+ */
+class AstCopier implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    List<Stmt> copy(List<Stmt> statements) {
+        return statements.stream().map(this::copy).toList();
+    }
+
+    private Stmt copy(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    private Expr copy(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        var copy = new Expr.Assign(expr.name, copy(expr.value));
+        copy.depth = expr.depth;
+        copy.slot = expr.slot;
+        return copy;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        return new Expr.Binary(copy(expr.left), expr.operator, copy(expr.right));
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        var arguments = expr.arguments.stream().map(this::copy).toList();
+        return new Expr.Call(copy(expr.callue), expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return new Expr.Grouping(copy(expr.expression));
+    }
+
+    @Override
+    public Expr visitIndexExpr(Expr.Index expr) {
+        return new Expr.Index(copy(expr.object), expr.bracket, copy(expr.index));
+    }
+
+    @Override
+    public Expr visitIndexAssignExpr(Expr.IndexAssign expr) {
+        return new Expr.IndexAssign(copy(expr.object), expr.bracket, copy(expr.index), copy(expr.value));
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        return new Expr.Logical(copy(expr.left), expr.operator, copy(expr.right));
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        return new Expr.Unary(expr.operator, copy(expr.right));
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        var copy = new Expr.Variable(expr.name);
+        copy.depth = expr.depth;
+        copy.slot = expr.slot;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        var copy = new Stmt.Block(copy(stmt.statements));
+        copy.slots = stmt.slots;
+        copy.flat = stmt.flat;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Stmt.Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new Stmt.Expression(copy(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        return new Stmt.For(copy(stmt.initializer), copy(stmt.condition),
+                copy(stmt.increment), copy(stmt.body));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        var copy = new Stmt.Function(stmt.name, stmt.params, copy(stmt.body));
+        copy.slot = stmt.slot;
+        copy.slots = stmt.slots;
+        copy.jit = stmt.jit;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        return new Stmt.If(copy(stmt.condition), copy(stmt.thenBranch), copy(stmt.elseBranch));
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(copy(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        var copy = new Stmt.Return(stmt.keyword, copy(stmt.value));
+        copy.tailCall = stmt.tailCall;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        var copy = new Stmt.Var(stmt.name, copy(stmt.initializer));
+        copy.slot = stmt.slot;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        return new Stmt.While(copy(stmt.condition), copy(stmt.body));
+    }
+}
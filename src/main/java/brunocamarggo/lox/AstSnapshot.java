@@ -0,0 +1,504 @@
+package brunocamarggo.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Binary form of a parsed program, so a script that hasn't changed can
+ * skip the Scanner and Parser. The snapshot holds the tree as the Parser
+ * built it, before the optimizer and resolver run, and starts with the
+ * SHA-256 of the source it came from.
+ *
+ * Layout: magic, format version, source hash, a table of every string in
+ * the tree, then the statements in prefix order. Each node is a tag byte
+ * followed by its fields; ints are unsigned LEB128 and strings are
+ * indexes into the table.
+ */
+final class AstSnapshot {
+
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+    // Bump whenever Expr, Stmt, TokenType or the layout changes.
+    private static final int VERSION = 3;
+    private static final int HASH_LENGTH = 32;
+
+    private static final byte NULL = 0;
+    private static final byte ASSIGN = 1;
+    private static final byte BINARY = 2;
+    private static final byte CALL = 3;
+    private static final byte GROUPING = 4;
+    private static final byte LITERAL = 5;
+    private static final byte LOGICAL = 6;
+    private static final byte UNARY = 7;
+    private static final byte VARIABLE = 8;
+    private static final byte INDEX = 9;
+    private static final byte INDEX_ASSIGN = 10;
+    private static final byte BLOCK = 16;
+    private static final byte BREAK = 17;
+    private static final byte CONTINUE = 18;
+    private static final byte EXPRESSION = 19;
+    private static final byte FOR = 20;
+    private static final byte FUNCTION = 21;
+    private static final byte IF = 22;
+    private static final byte PRINT = 23;
+    private static final byte RETURN = 24;
+    private static final byte VAR = 25;
+    private static final byte WHILE = 26;
+
+    private static final byte VALUE_NIL = 0;
+    private static final byte VALUE_TRUE = 1;
+    private static final byte VALUE_FALSE = 2;
+    private static final byte VALUE_NUMBER = 3;
+    private static final byte VALUE_STRING = 4;
+
+    private AstSnapshot() {}
+
+    /** Where the snapshot of a script lives: next to it, with a .loxc extension. */
+    static Path pathFor(Path script) {
+        var name = script.getFileName().toString();
+        if (name.endsWith(".lox")) name = name.substring(0, name.length() - 4);
+        return script.resolveSibling(name + ".loxc");
+    }
+
+    /**
+     * Loads the snapshot if it exists and was made from source with this
+     * hash. A missing, stale or damaged snapshot just returns null.
+     */
+    static List<Stmt> load(Path path, byte[] sourceHash) {
+        if (!Files.isRegularFile(path)) return null;
+        try (var channel = FileChannel.open(path)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer, sourceHash);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static List<Stmt> read(ByteBuffer buffer, byte[] sourceHash) {
+        if (buffer.remaining() < 8 + HASH_LENGTH) return null;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+        var hash = new byte[HASH_LENGTH];
+        buffer.get(hash);
+        if (!Arrays.equals(hash, sourceHash)) return null;
+        try {
+            return new Reader(buffer).program();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot next to where it will be read, then moves it into
+     * place, so a reader never sees half a file. The file gets the same
+     * permissions as any other the process creates, where createTempFile
+     * would make it readable by its owner only.
+     */
+    static void save(Path path, byte[] sourceHash, List<Stmt> statements) throws IOException {
+        var bytes = ByteBuffer.wrap(write(sourceHash, statements));
+        var temporary = path.resolveSibling(path.getFileName() + "."
+                + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+        // Opened outside the try: if the name is taken, the file isn't ours to delete.
+        var channel = Files.newByteChannel(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            try (channel) {
+                while (bytes.hasRemaining()) channel.write(bytes);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    static byte[] write(byte[] sourceHash, List<Stmt> statements) {
+        var writer = new Writer();
+        writer.varint(statements.size());
+        statements.forEach(writer::stmt);
+
+        var out = new ByteArrayOutputStream();
+        var header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+        out.writeBytes(header.array());
+        out.writeBytes(sourceHash);
+        var table = new Writer();
+        table.varint(writer.strings.size());
+        for (String string : writer.strings) {
+            var bytes = string.getBytes(StandardCharsets.UTF_8);
+            table.varint(bytes.length);
+            table.out.writeBytes(bytes);
+        }
+        out.writeBytes(table.out.toByteArray());
+        out.writeBytes(writer.out.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static final class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> indexes = new HashMap<>();
+
+        void varint(int value) {
+            while ((value & ~0x7f) != 0) {
+                out.write(value & 0x7f | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        void string(String value) {
+            var index = indexes.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.add(value);
+                indexes.put(value, index);
+            }
+            varint(index);
+        }
+
+        void token(Token token) {
+            out.write(token.type.ordinal());
+            string(token.lexeme);
+            varint(token.line);
+            varint(token.offset + 1);
+        }
+
+        void tokens(List<Token> tokens) {
+            varint(tokens.size());
+            tokens.forEach(this::token);
+        }
+
+        void value(Object value) {
+            if (value == null) {
+                out.write(VALUE_NIL);
+            } else if (value instanceof Boolean bool) {
+                out.write(bool ? VALUE_TRUE : VALUE_FALSE);
+            } else if (value instanceof Double number) {
+                out.write(VALUE_NUMBER);
+                out.writeBytes(ByteBuffer.allocate(8).putDouble(number).array());
+            } else {
+                out.write(VALUE_STRING);
+                string((String) value);
+            }
+        }
+
+        void expr(Expr expr) {
+            if (expr == null) {
+                out.write(NULL);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        void stmt(Stmt stmt) {
+            if (stmt == null) {
+                out.write(NULL);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        void stmts(List<Stmt> statements) {
+            varint(statements.size());
+            statements.forEach(this::stmt);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            out.write(ASSIGN);
+            token(expr.name);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            out.write(BINARY);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            out.write(CALL);
+            expr(expr.callue);
+            token(expr.paren);
+            varint(expr.arguments.size());
+            expr.arguments.forEach(this::expr);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            out.write(GROUPING);
+            expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr) {
+            out.write(INDEX);
+            expr(expr.object);
+            token(expr.bracket);
+            expr(expr.index);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexAssignExpr(Expr.IndexAssign expr) {
+            out.write(INDEX_ASSIGN);
+            expr(expr.object);
+            token(expr.bracket);
+            expr(expr.index);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            out.write(LITERAL);
+            value(expr.value);
+            varint(expr.line);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            out.write(LOGICAL);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            out.write(UNARY);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            out.write(VARIABLE);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            out.write(BLOCK);
+            stmts(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Stmt.Break stmt) {
+            out.write(BREAK);
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(Stmt.Continue stmt) {
+            out.write(CONTINUE);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            out.write(EXPRESSION);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            out.write(FOR);
+            stmt(stmt.initializer);
+            expr(stmt.condition);
+            expr(stmt.increment);
+            stmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            out.write(FUNCTION);
+            token(stmt.name);
+            tokens(stmt.params);
+            stmts(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            out.write(IF);
+            expr(stmt.condition);
+            stmt(stmt.thenBranch);
+            stmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            out.write(PRINT);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            out.write(RETURN);
+            token(stmt.keyword);
+            expr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            out.write(VAR);
+            token(stmt.name);
+            expr(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            out.write(WHILE);
+            expr(stmt.condition);
+            stmt(stmt.body);
+            return null;
+        }
+    }
+
+    private static final class Reader {
+        private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+        private final ByteBuffer in;
+        private final String[] strings;
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+            this.strings = new String[varint()];
+            for (int i = 0; i < strings.length; i++) {
+                var bytes = new byte[varint()];
+                in.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+
+        List<Stmt> program() {
+            var statements = stmts();
+            if (in.hasRemaining()) throw new IllegalArgumentException("Trailing bytes in snapshot.");
+            return statements;
+        }
+
+        private int varint() {
+            var value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                var b = in.get();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IllegalArgumentException("Malformed int in snapshot.");
+        }
+
+        private String string() {
+            return strings[varint()];
+        }
+
+        private Token token() {
+            var type = TOKEN_TYPES[in.get()];
+            var lexeme = string();
+            var line = varint();
+            var offset = varint() - 1;
+            return new Token(type, lexeme, null, line, offset);
+        }
+
+        private List<Token> tokens() {
+            var count = varint();
+            var tokens = new ArrayList<Token>(count);
+            for (int i = 0; i < count; i++) tokens.add(token());
+            return tokens;
+        }
+
+        private Object value() {
+            return switch (in.get()) {
+                case VALUE_NIL -> null;
+                case VALUE_TRUE -> true;
+                case VALUE_FALSE -> false;
+                case VALUE_NUMBER -> in.getDouble();
+                case VALUE_STRING -> string();
+                default -> throw new IllegalArgumentException("Unknown value tag in snapshot.");
+            };
+        }
+
+        private List<Stmt> stmts() {
+            var count = varint();
+            var statements = new ArrayList<Stmt>(count);
+            for (int i = 0; i < count; i++) statements.add(stmt());
+            return statements;
+        }
+
+        private Expr expr() {
+            var tag = in.get();
+            return switch (tag) {
+                case NULL -> null;
+                case ASSIGN -> new Expr.Assign(token(), expr());
+                case BINARY -> new Expr.Binary(expr(), token(), expr());
+                case CALL -> {
+                    var callee = expr();
+                    var paren = token();
+                    var count = varint();
+                    var arguments = new ArrayList<Expr>(count);
+                    for (int i = 0; i < count; i++) arguments.add(expr());
+                    yield new Expr.Call(callee, paren, arguments);
+                }
+                case GROUPING -> new Expr.Grouping(expr());
+                case INDEX -> new Expr.Index(expr(), token(), expr());
+                case INDEX_ASSIGN -> new Expr.IndexAssign(expr(), token(), expr(), expr());
+                case LITERAL -> {
+                    var literal = new Expr.Literal(value());
+                    literal.line = varint();
+                    yield literal;
+                }
+                case LOGICAL -> new Expr.Logical(expr(), token(), expr());
+                case UNARY -> new Expr.Unary(token(), expr());
+                case VARIABLE -> new Expr.Variable(token());
+                default -> throw new IllegalArgumentException("Unknown expression tag " + tag + " in snapshot.");
+            };
+        }
+
+        private Stmt stmt() {
+            var tag = in.get();
+            return switch (tag) {
+                case NULL -> null;
+                case BLOCK -> new Stmt.Block(stmts());
+                case BREAK -> new Stmt.Break();
+                case CONTINUE -> new Stmt.Continue();
+                case EXPRESSION -> new Stmt.Expression(expr());
+                case FOR -> new Stmt.For(stmt(), expr(), expr(), stmt());
+                case FUNCTION -> new Stmt.Function(token(), tokens(), stmts());
+                case IF -> new Stmt.If(expr(), stmt(), stmt());
+                case PRINT -> new Stmt.Print(expr());
+                case RETURN -> new Stmt.Return(token(), expr());
+                case VAR -> new Stmt.Var(token(), expr());
+                case WHILE -> new Stmt.While(expr(), stmt());
+                default -> throw new IllegalArgumentException("Unknown statement tag " + tag + " in snapshot.");
+            };
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package brunocamarggo.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Runs many scripts at once, each in a context of its own, and hands back
+ * what every script printed and how it ended, in the order the scripts
+ * were given. At most jobs scripts run at a time. Each gets a virtual
+ * thread on runtimes that have them and a thread from a pool of jobs
+ * threads otherwise.
+ */
+final class BatchRunner {
+
+    /** What one script printed and its exit status, as the CLI would report it. */
+    record ScriptResult(Path script, int exitStatus, String output, String errors) {}
+
+    private final LoxEngine engine;
+    private final Charset charset;
+    private final int jobs;
+
+    BatchRunner(LoxEngine engine, Charset charset, int jobs) {
+        this.engine = engine;
+        this.charset = charset;
+        this.jobs = jobs;
+    }
+
+    /**
+     * The scripts a batch names: every .lox file under a directory, or the
+     * paths listed one per line in a manifest, relative to it. Blank lines
+     * and lines starting with '#' are skipped.
+     */
+    static List<Path> scripts(Path batch) throws IOException {
+        if (Files.isDirectory(batch)) {
+            try (Stream<Path> files = Files.walk(batch)) {
+                return files.filter(file -> file.toString().endsWith(".lox") && Files.isRegularFile(file))
+                        .sorted()
+                        .toList();
+            }
+        }
+
+        var scripts = new ArrayList<Path>();
+        var base = batch.toAbsolutePath().getParent();
+        for (String line : Files.readAllLines(batch)) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            scripts.add(base.resolve(line));
+        }
+        return scripts;
+    }
+
+    /**
+     * Runs the scripts and reports each result, from the calling thread,
+     * once it and every script before it have finished.
+     */
+    void run(List<Path> scripts, Consumer<ScriptResult> report) throws InterruptedException {
+        var permits = new Semaphore(jobs);
+        var pending = new ArrayDeque<Future<ScriptResult>>();
+        var executor = newExecutor(jobs);
+        try {
+            for (Path script : scripts) {
+                permits.acquire();
+                pending.add(executor.submit(() -> {
+                    try {
+                        return run(script);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+                while (!pending.isEmpty() && pending.peek().isDone()) {
+                    report.accept(result(pending.poll()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                report.accept(result(pending.poll()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ScriptResult run(Path script) {
+        var out = new ByteArrayOutputStream();
+        var err = new ByteArrayOutputStream();
+        var errors = new PrintStream(err, true, charset);
+        int status;
+        try {
+            var source = Files.readString(script, charset);
+            var context = engine.newContext(new PrintStream(out, false, charset), errors);
+            status = switch (context.eval(source)) {
+                case OK -> 0;
+                case COMPILE_ERROR -> 65;
+                case RUNTIME_ERROR -> 70;
+            };
+        } catch (IOException e) {
+            errors.println("Can't read " + script + ": " + e.getMessage());
+            status = 66;
+        } catch (RuntimeException | StackOverflowError | OutOfMemoryError e) {
+            // One script failing this way mustn't take the batch down. What
+            // it allocated is garbage once it has unwound, so the others
+            // can still run.
+            errors.println("Script failed: " + e);
+            status = 70;
+        }
+        return new ScriptResult(script, status, out.toString(charset), err.toString(charset));
+    }
+
+    private static ScriptResult result(Future<ScriptResult> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error error) throw error;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor where the runtime has it;
+     * the semaphore in run() is what bounds those. Looked up reflectively
+     * so the build keeps targeting Java 17.
+     */
+    private static ExecutorService newExecutor(int jobs) {
+        try {
+            var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(jobs);
+        }
+    }
+}
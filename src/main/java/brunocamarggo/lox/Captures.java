@@ -0,0 +1,205 @@
+package brunocamarggo.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the blocks that declare a variable some function nested in them
+ * uses. A closure keeps the environment it was declared in, so only those
+ * blocks need an environment of their own each time they run; the
+ * Resolver puts the variables of every other block in the enclosing one.
+ * Names are looked up the way the Resolver looks them up.
+ */
+final class Captures implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    /** A block's scope, or a function's when block is null, and how deep in functions it is. */
+    private record Scope(Stmt.Block block, int function, Set<String> names) {}
+
+    private final List<Scope> scopes = new ArrayList<>();
+    private final Set<Stmt.Block> captured = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int function = 0;
+
+    private Captures() {}
+
+    static Set<Stmt.Block> in(List<Stmt> statements) {
+        var captures = new Captures();
+        captures.analyze(statements);
+        return captures.captured;
+    }
+
+    private void analyze(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            analyze(statement);
+        }
+    }
+
+    private void analyze(Stmt stmt) {
+        if (stmt != null) stmt.accept(this);
+    }
+
+    private void analyze(Expr expr) {
+        if (expr != null) expr.accept(this);
+    }
+
+    private void declare(Token name) {
+        if (!scopes.isEmpty()) scopes.get(scopes.size() - 1).names.add(name.lexeme);
+    }
+
+    private void use(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            var scope = scopes.get(i);
+            if (!scope.names.contains(name.lexeme)) continue;
+            if (scope.block != null && scope.function < function) captured.add(scope.block);
+            return;
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        analyze(expr.value);
+        use(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        analyze(expr.left);
+        analyze(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        analyze(expr.callue);
+        expr.arguments.forEach(this::analyze);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        analyze(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        analyze(expr.object);
+        analyze(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexAssignExpr(Expr.IndexAssign expr) {
+        analyze(expr.object);
+        analyze(expr.index);
+        analyze(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        analyze(expr.left);
+        analyze(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        analyze(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        use(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.add(new Scope(stmt, function, new HashSet<>()));
+        analyze(stmt.statements);
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        analyze(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        analyze(stmt.initializer);
+        analyze(stmt.condition);
+        analyze(stmt.increment);
+        analyze(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name);
+        function++;
+        scopes.add(new Scope(null, function, new HashSet<>()));
+        stmt.params.forEach(this::declare);
+        analyze(stmt.body);
+        scopes.remove(scopes.size() - 1);
+        function--;
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        analyze(stmt.condition);
+        analyze(stmt.thenBranch);
+        analyze(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        analyze(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        analyze(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        analyze(stmt.initializer);
+        declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        analyze(stmt.condition);
+        analyze(stmt.body);
+        return null;
+    }
+}
@@ -0,0 +1,44 @@
+package brunocamarggo.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+final class Chunk {
+
+    /**
+     * A global as an instruction operand. Compared by value, so every
+     * reference to the same global in a chunk shares one constant.
+     */
+    record GlobalRef(String name, int slot) {}
+
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+
+    Object[] constants = new Object[16];
+    private int constantCount = 0;
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    void write(byte value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = value;
+        lines[count] = line;
+        count++;
+    }
+
+    int addConstant(Object value) {
+        var index = constantIndex.get(value);
+        if (index != null) return index;
+
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        constantIndex.put(value, constantCount);
+        return constantCount++;
+    }
+}
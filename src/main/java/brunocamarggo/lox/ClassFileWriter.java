@@ -0,0 +1,351 @@
+package brunocamarggo.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a class file writer for the Jit: one class, a few fields
+ * and methods, no exception tables. Classes are written as version 49 so
+ * the verifier infers frames itself and no StackMapTable is needed.
+ */
+final class ClassFileWriter {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final String name;
+    private final String superName;
+    private final List<String> interfaces = new ArrayList<>();
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<Code> methods = new ArrayList<>();
+
+    ClassFileWriter(String name, String superName) {
+        this.name = name;
+        this.superName = superName;
+    }
+
+    void addInterface(String internalName) {
+        interfaces.add(internalName);
+    }
+
+    void addField(int access, String fieldName, String descriptor) {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        write(() -> {
+            out.writeShort(access);
+            out.writeShort(utf8(fieldName));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        });
+        fields.add(bytes.toByteArray());
+    }
+
+    Code addMethod(int access, String methodName, String descriptor, int argumentSlots) {
+        var code = new Code(access, methodName, descriptor, argumentSlots);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        // Method bodies may still add constants, so they are finished first.
+        var methodInfos = methods.stream().map(Code::toMethodInfo).toList();
+        var thisClass = classRef(name);
+        var superClass = classRef(superName);
+        var interfaceRefs = interfaces.stream().map(this::classRef).toList();
+
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        write(() -> {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaceRefs.size());
+            for (int ref : interfaceRefs) out.writeShort(ref);
+            out.writeShort(fields.size());
+            for (byte[] field : fields) out.write(field);
+            out.writeShort(methodInfos.size());
+            for (byte[] method : methodInfos) out.write(method);
+            out.writeShort(0);
+        });
+        return bytes.toByteArray();
+    }
+
+    int utf8(String value) {
+        return constant("U" + value, () -> {
+            poolOut.writeByte(1);
+            poolOut.writeUTF(value);
+        });
+    }
+
+    int classRef(String internalName) {
+        var nameIndex = utf8(internalName);
+        return constant("C" + internalName, () -> {
+            poolOut.writeByte(7);
+            poolOut.writeShort(nameIndex);
+        });
+    }
+
+    int string(String value) {
+        var valueIndex = utf8(value);
+        return constant("S" + value, () -> {
+            poolOut.writeByte(8);
+            poolOut.writeShort(valueIndex);
+        });
+    }
+
+    int fieldRef(String owner, String fieldName, String descriptor) {
+        return memberRef(9, owner, fieldName, descriptor);
+    }
+
+    int methodRef(String owner, String methodName, String descriptor) {
+        return memberRef(10, owner, methodName, descriptor);
+    }
+
+    int interfaceMethodRef(String owner, String methodName, String descriptor) {
+        return memberRef(11, owner, methodName, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String memberName, String descriptor) {
+        var ownerIndex = classRef(owner);
+        var nameIndex = utf8(memberName);
+        var descriptorIndex = utf8(descriptor);
+        var nameAndType = constant("N" + memberName + ":" + descriptor, () -> {
+            poolOut.writeByte(12);
+            poolOut.writeShort(nameIndex);
+            poolOut.writeShort(descriptorIndex);
+        });
+        return constant(tag + owner + "." + memberName + ":" + descriptor, () -> {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(ownerIndex);
+            poolOut.writeShort(nameAndType);
+        });
+    }
+
+    private int constant(String key, IOAction writeEntry) {
+        var existing = poolIndex.get(key);
+        if (existing != null) return existing;
+
+        write(writeEntry);
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private interface IOAction {
+        void run() throws IOException;
+    }
+
+    private static void write(IOAction action) {
+        try {
+            action.run();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static final class Label {
+        private int position = -1;
+        private int depth = -1;
+        private final List<Integer> fixups = new ArrayList<>();
+    }
+
+    /**
+     * Bytecode of a single method. Callers pass the stack effect of each
+     * instruction so max_stack can be tracked as the code is emitted.
+     */
+    final class Code {
+        static final int ACONST_NULL = 0x01;
+        static final int BIPUSH = 0x10;
+        static final int SIPUSH = 0x11;
+        static final int LDC = 0x12;
+        static final int LDC_W = 0x13;
+        static final int ALOAD = 0x19;
+        static final int ASTORE = 0x3a;
+        static final int AALOAD = 0x32;
+        static final int AASTORE = 0x53;
+        static final int POP = 0x57;
+        static final int DUP = 0x59;
+        static final int IFEQ = 0x99;
+        static final int IFNE = 0x9a;
+        static final int GOTO = 0xa7;
+        static final int ARETURN = 0xb0;
+        static final int RETURN = 0xb1;
+        static final int GETSTATIC = 0xb2;
+        static final int GETFIELD = 0xb4;
+        static final int PUTFIELD = 0xb5;
+        static final int INVOKEVIRTUAL = 0xb6;
+        static final int INVOKESPECIAL = 0xb7;
+        static final int INVOKESTATIC = 0xb8;
+        static final int INVOKEINTERFACE = 0xb9;
+        static final int ANEWARRAY = 0xbd;
+        static final int CHECKCAST = 0xc0;
+        static final int WIDE = 0xc4;
+
+        private final int access;
+        private final String methodName;
+        private final String descriptor;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+        private int depth = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+        private boolean reachable = true;
+
+        private Code(int access, String methodName, String descriptor, int argumentSlots) {
+            this.access = access;
+            this.methodName = methodName;
+            this.descriptor = descriptor;
+            this.maxLocals = argumentSlots;
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        Label newLabel() {
+            var label = new Label();
+            labels.add(label);
+            return label;
+        }
+
+        void op(int opcode, int stackEffect) {
+            bytes.write(opcode);
+            adjust(stackEffect);
+            if (opcode == GOTO || opcode == ARETURN || opcode == RETURN) {
+                reachable = false;
+            }
+        }
+
+        void opWithShort(int opcode, int operand, int stackEffect) {
+            op(opcode, stackEffect);
+            writeShort(operand);
+        }
+
+        void pushInt(int value) {
+            if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH, 1);
+                bytes.write(value);
+            } else {
+                opWithShort(SIPUSH, value, 1);
+            }
+        }
+
+        void ldc(int index) {
+            if (index <= 0xff) {
+                op(LDC, 1);
+                bytes.write(index);
+            } else {
+                opWithShort(LDC_W, index, 1);
+            }
+        }
+
+        void aload(int local) {
+            local(ALOAD, local, 1);
+        }
+
+        void astore(int local) {
+            local(ASTORE, local, -1);
+        }
+
+        private void local(int opcode, int local, int stackEffect) {
+            maxLocals = Math.max(maxLocals, local + 1);
+            if (local <= 0xff) {
+                op(opcode, stackEffect);
+                bytes.write(local);
+            } else {
+                op(WIDE, 0);
+                op(opcode, stackEffect);
+                writeShort(local);
+            }
+        }
+
+        void invokeInterface(int methodRef, int argumentSlots, int stackEffect) {
+            opWithShort(INVOKEINTERFACE, methodRef, stackEffect);
+            bytes.write(argumentSlots + 1);
+            bytes.write(0);
+        }
+
+        void jump(int opcode, Label target) {
+            var start = bytes.size();
+            op(opcode, opcode == GOTO ? 0 : -1);
+            if (target.depth == -1) target.depth = depth;
+            if (target.position != -1) {
+                writeShort(target.position - start);
+            } else {
+                target.fixups.add(start);
+                writeShort(0);
+            }
+            if (opcode == GOTO) reachable = false;
+        }
+
+        void bind(Label label) {
+            label.position = bytes.size();
+            if (!reachable && label.depth != -1) depth = label.depth;
+            if (label.depth == -1) label.depth = depth;
+            reachable = true;
+        }
+
+        /** False right after a goto or return, until the next label is bound. */
+        boolean isReachable() {
+            return reachable;
+        }
+
+        private void adjust(int stackEffect) {
+            depth += stackEffect;
+            maxStack = Math.max(maxStack, depth);
+        }
+
+        private void writeShort(int value) {
+            bytes.write(value >> 8);
+            bytes.write(value);
+        }
+
+        private byte[] toMethodInfo() {
+            var code = bytes.toByteArray();
+            for (Label label : labels) {
+                for (int start : label.fixups) {
+                    var offset = label.position - start;
+                    code[start + 1] = (byte) (offset >> 8);
+                    code[start + 2] = (byte) offset;
+                }
+            }
+
+            var method = new ByteArrayOutputStream();
+            var out = new DataOutputStream(method);
+            write(() -> {
+                out.writeShort(access);
+                out.writeShort(utf8(methodName));
+                out.writeShort(utf8(descriptor));
+                out.writeShort(1);
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + code.length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(code.length);
+                out.write(code);
+                out.writeShort(0);
+                out.writeShort(0);
+            });
+            return method.toByteArray();
+        }
+    }
+}
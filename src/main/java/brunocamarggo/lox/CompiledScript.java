@@ -0,0 +1,43 @@
+package brunocamarggo.lox;
+
+import java.util.List;
+
+/**
+ * A script that has been scanned, parsed, optimized and resolved once, by
+ * LoxEngine.compile, and can be run any number of times, from any number
+ * of threads, each time in a new context. Nothing here changes after it
+ * is compiled: runs get their own copy of anything they would modify.
+ */
+public final class CompiledScript {
+
+    final LoxEngine.Backend backend;
+    // The errors reported while compiling, or null if there were none.
+    final String errors;
+    // The names the resolver gave slots to, in slot order.
+    final List<String> globalNames;
+    final List<Stmt> statements;
+    // The compiled script for the VM backend, null for the others.
+    final VMFunction function;
+
+    CompiledScript(LoxEngine.Backend backend, List<String> globalNames,
+                   List<Stmt> statements, VMFunction function) {
+        this(backend, null, globalNames, statements, function);
+    }
+
+    private CompiledScript(LoxEngine.Backend backend, String errors, List<String> globalNames,
+                           List<Stmt> statements, VMFunction function) {
+        this.backend = backend;
+        this.errors = errors;
+        this.globalNames = globalNames;
+        this.statements = statements;
+        this.function = function;
+    }
+
+    static CompiledScript failed(LoxEngine.Backend backend, String errors) {
+        return new CompiledScript(backend, errors, List.of(), List.of(), null);
+    }
+
+    public boolean hasErrors() {
+        return errors != null;
+    }
+}
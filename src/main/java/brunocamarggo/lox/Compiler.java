@@ -0,0 +1,610 @@
+package brunocamarggo.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Compiler implements Expr.Visitor<Void>,
+                                 Stmt.Visitor<Void> {
+
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_SHORT = 0xffff;
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean captured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Loop {
+        final int start;
+        final int scopeDepth;
+        final List<Integer> breaks = new ArrayList<>();
+        final List<Integer> continues = new ArrayList<>();
+
+        Loop(int start, int scopeDepth) {
+            this.start = start;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VMFunction function;
+        final List<Local> locals = new ArrayList<>();
+        final List<Integer> upvalues = new ArrayList<>();
+        final List<Loop> loops = new ArrayList<>();
+        int scopeDepth = 0;
+        // Stack slots in use at the code being emitted.
+        int stack = 1;
+
+        FunctionState(FunctionState enclosing, VMFunction function) {
+            this.enclosing = enclosing;
+            this.function = function;
+            // Slot zero holds the callee, like the frame layout in VM.
+            locals.add(new Local("", 0));
+        }
+    }
+
+    private final Globals globals;
+    private FunctionState current;
+    private int line = 1;
+
+    private final ErrorReporter reporter;
+
+    public Compiler(Globals globals, ErrorReporter reporter) {
+        this.globals = globals;
+        this.reporter = reporter;
+    }
+
+    VMFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null, new VMFunction(null));
+        statements.forEach(this::compile);
+        emit(OpCode.NIL);
+        emit(OpCode.RETURN);
+        return current.function;
+    }
+
+    private void compile(Stmt stmt) {
+        var statementLine = Profiler.lineOf(stmt);
+        if (statementLine > 0) line = statementLine;
+        emit(OpCode.STATEMENT);
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    private void emit(byte op) {
+        emitByte(op);
+        stack(stackEffect(op, 0));
+    }
+
+    private void emit(byte op, int operand) {
+        emitByte(op);
+        emitByte((byte) operand);
+        stack(stackEffect(op, operand));
+    }
+
+    private void emitShort(byte op, int operand) {
+        emitByte(op);
+        emitByte((byte) (operand >> 8));
+        emitByte((byte) operand);
+        stack(stackEffect(op, operand));
+    }
+
+    private void emitByte(byte value) {
+        chunk().write(value, line);
+    }
+
+    private void stack(int effect) {
+        current.stack += effect;
+        if (current.stack > current.function.maxStack) current.function.maxStack = current.stack;
+    }
+
+    /** How many slots an instruction pushes, less how many it pops. */
+    private static int stackEffect(byte op, int operand) {
+        return switch (op) {
+            case OpCode.CONSTANT, OpCode.NIL, OpCode.TRUE, OpCode.FALSE,
+                 OpCode.GET_LOCAL, OpCode.GET_GLOBAL, OpCode.GET_UPVALUE, OpCode.CLOSURE -> 1;
+            case OpCode.POP, OpCode.STORE_LOCAL, OpCode.STORE_GLOBAL, OpCode.STORE_UPVALUE,
+                 OpCode.DEFINE_GLOBAL, OpCode.CLOSE_UPVALUE, OpCode.PRINT, OpCode.POP_JUMP_IF_FALSE,
+                 OpCode.RETURN, OpCode.EQUAL, OpCode.NOT_EQUAL, OpCode.GREATER, OpCode.GREATER_EQUAL,
+                 OpCode.LESS, OpCode.LESS_EQUAL, OpCode.ADD, OpCode.SUBTRACT, OpCode.MULTIPLY,
+                 OpCode.DIVIDE, OpCode.GET_INDEX -> -1;
+            case OpCode.SET_INDEX -> -2;
+            case OpCode.CALL, OpCode.TAIL_CALL -> -operand;
+            default -> 0;
+        };
+    }
+
+    private void emitConstant(Object value) {
+        emitShort(OpCode.CONSTANT, makeConstant(value));
+    }
+
+    private int makeConstant(Object value) {
+        var index = chunk().addConstant(value);
+        if (index > MAX_SHORT) {
+            // Reported for the first constant that doesn't fit, not for every one after it.
+            if (index == MAX_SHORT + 1) reporter.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private int emitJump(byte op) {
+        emitShort(op, MAX_SHORT);
+        return chunk().count - 2;
+    }
+
+    private void patchJump(int offset) {
+        var jump = chunk().count - offset - 2;
+        if (jump > MAX_SHORT) {
+            reporter.error(line, "Too much code to jump over.");
+        }
+        chunk().code[offset] = (byte) (jump >> 8);
+        chunk().code[offset + 1] = (byte) jump;
+    }
+
+    private void emitLoop(int loopStart) {
+        var offset = chunk().count - loopStart + 3;
+        if (offset > MAX_SHORT) {
+            reporter.error(line, "Loop body too large.");
+        }
+        emitShort(OpCode.LOOP, offset);
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        var locals = current.locals;
+        while (locals.size() > 1 && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            emitPop(locals.remove(locals.size() - 1));
+        }
+    }
+
+    private void emitPop(Local local) {
+        emit(local.captured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+    }
+
+    private int addLocal(String name) {
+        if (current.locals.size() == MAX_LOCALS) {
+            reporter.error(line, "Too many local variables in function.");
+            return 0;
+        }
+        current.locals.add(new Local(name, current.scopeDepth));
+        return current.locals.size() - 1;
+    }
+
+    /** Slot of a local with this name declared in the innermost scope, or -1. */
+    private int localInCurrentScope(String name) {
+        var locals = current.locals;
+        for (int i = locals.size() - 1; i > 0; i--) {
+            var local = locals.get(i);
+            if (local.depth < current.scopeDepth) break;
+            if (local.name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i > 0; i--) {
+            if (state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+
+        var local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).captured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        var upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(state, upvalue, false);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        // Each upvalue is packed as (index << 1 | isLocal).
+        var packed = index << 1 | (isLocal ? 1 : 0);
+        var existing = state.upvalues.indexOf(packed);
+        if (existing != -1) return existing;
+
+        if (state.upvalues.size() == MAX_LOCALS) {
+            reporter.error(line, "Too many closure variables in function.");
+            return 0;
+        }
+        state.upvalues.add(packed);
+        state.function.upvalueCount = state.upvalues.size();
+        return state.upvalues.size() - 1;
+    }
+
+    private void getVariable(Token name) {
+        line = name.line;
+        var local = resolveLocal(current, name.lexeme);
+        if (local != -1) {
+            emit(OpCode.GET_LOCAL, local);
+            return;
+        }
+        var upvalue = resolveUpvalue(current, name.lexeme);
+        if (upvalue != -1) {
+            emit(OpCode.GET_UPVALUE, upvalue);
+            return;
+        }
+        emitShort(OpCode.GET_GLOBAL, globalRef(name));
+    }
+
+    /**
+     * Assigns the value on top of the stack. When {@code keep} is false the
+     * value is consumed, which is what an assignment statement wants.
+     */
+    private void setVariable(Token name, boolean keep) {
+        line = name.line;
+        var local = resolveLocal(current, name.lexeme);
+        if (local != -1) {
+            emit(keep ? OpCode.SET_LOCAL : OpCode.STORE_LOCAL, local);
+            return;
+        }
+        var upvalue = resolveUpvalue(current, name.lexeme);
+        if (upvalue != -1) {
+            emit(keep ? OpCode.SET_UPVALUE : OpCode.STORE_UPVALUE, upvalue);
+            return;
+        }
+        emitShort(keep ? OpCode.SET_GLOBAL : OpCode.STORE_GLOBAL, globalRef(name));
+    }
+
+    private int globalRef(Token name) {
+        return makeConstant(new Chunk.GlobalRef(name.lexeme, globals.slotOf(name.lexeme)));
+    }
+
+    /**
+     * Binds the value on top of the stack to a new variable. Locals simply
+     * stay where they are; redeclaring a name in the same scope reuses its
+     * slot, matching how the Resolver treats it.
+     */
+    private void defineVariable(Token name, int redeclared) {
+        if (current.scopeDepth == 0) {
+            emitShort(OpCode.DEFINE_GLOBAL, globalRef(name));
+        } else if (redeclared != -1) {
+            emit(OpCode.STORE_LOCAL, redeclared);
+        }
+    }
+
+    /**
+     * Pops the locals of the scopes a jump out of the loop leaves. Code
+     * after the jump still has them, so the stack count is left as it was.
+     */
+    private void exitLoopScopes(Loop loop) {
+        var stack = current.stack;
+        var locals = current.locals;
+        for (int i = locals.size() - 1; i > 0 && locals.get(i).depth > loop.scopeDepth; i--) {
+            emitPop(locals.get(i));
+        }
+        current.stack = stack;
+    }
+
+    private void function(Stmt.Function stmt) {
+        current = new FunctionState(current, new VMFunction(stmt.name.lexeme));
+        current.function.arity = stmt.params.size();
+        current.stack += stmt.params.size();
+        current.function.maxStack = current.stack;
+        beginScope();
+        for (Token param : stmt.params) {
+            addLocal(param.lexeme);
+        }
+        stmt.body.forEach(this::compile);
+        emit(OpCode.NIL);
+        emit(OpCode.RETURN);
+
+        var compiled = current;
+        current = current.enclosing;
+        emitShort(OpCode.CLOSURE, makeConstant(compiled.function));
+        for (int upvalue : compiled.upvalues) {
+            emitByte((byte) (upvalue & 1));
+            emitByte((byte) (upvalue >> 1));
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        setVariable(expr.name, true);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case GREATER -> emit(OpCode.GREATER);
+            case GREATER_EQUAL -> emit(OpCode.GREATER_EQUAL);
+            case LESS -> emit(OpCode.LESS);
+            case LESS_EQUAL -> emit(OpCode.LESS_EQUAL);
+            case BANG_EQUAL -> emit(OpCode.NOT_EQUAL);
+            case EQUAL_EQUAL -> emit(OpCode.EQUAL);
+            case MINUS -> emit(OpCode.SUBTRACT);
+            case SLASH -> emit(OpCode.DIVIDE);
+            case STAR -> emit(OpCode.MULTIPLY);
+            case PLUS -> emit(OpCode.ADD);
+            default -> {
+                emit(OpCode.POP);
+                emit(OpCode.POP);
+                emit(OpCode.NIL);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callue);
+        expr.arguments.forEach(this::compile);
+        line = expr.paren.line;
+        emit(OpCode.CALL, expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        compile(expr.object);
+        compile(expr.index);
+        line = expr.bracket.line;
+        emit(OpCode.GET_INDEX);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexAssignExpr(Expr.IndexAssign expr) {
+        compile(expr.object);
+        compile(expr.index);
+        compile(expr.value);
+        line = expr.bracket.line;
+        emit(OpCode.SET_INDEX);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.line > 0) line = expr.line;
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (expr.value.equals(true)) {
+            emit(OpCode.TRUE);
+        } else if (expr.value.equals(false)) {
+            emit(OpCode.FALSE);
+        } else {
+            emitConstant(expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.operator.line;
+        if (expr.operator.type == TokenType.OR) {
+            var elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            var endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            var endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case MINUS -> emit(OpCode.NEGATE);
+            case BANG -> emit(OpCode.NOT);
+            default -> {
+                emit(OpCode.POP);
+                emit(OpCode.NIL);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        getVariable(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        stmt.statements.forEach(this::compile);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        var loop = current.loops.get(current.loops.size() - 1);
+        exitLoopScopes(loop);
+        loop.breaks.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        var loop = current.loops.get(current.loops.size() - 1);
+        exitLoopScopes(loop);
+        if (loop.start == -1) {
+            loop.continues.add(emitJump(OpCode.JUMP));
+        } else {
+            emitLoop(loop.start);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression instanceof Expr.Assign assign) {
+            compile(assign.value);
+            setVariable(assign.name, false);
+            return null;
+        }
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null) compile(stmt.initializer);
+
+        var loopStart = chunk().count;
+        compile(stmt.condition);
+        var exitJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+
+        // 'continue' has to run the increment, which is only emitted after
+        // the body, so its jumps are patched forward instead of looping back.
+        var loop = new Loop(-1, current.scopeDepth);
+        current.loops.add(loop);
+        compile(stmt.body);
+        current.loops.remove(current.loops.size() - 1);
+
+        loop.continues.forEach(this::patchJump);
+        if (stmt.increment != null) {
+            // Compiled like an expression statement, but not counted as one.
+            new Stmt.Expression(stmt.increment).accept(this);
+        }
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        loop.breaks.forEach(this::patchJump);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        if (current.scopeDepth > 0) {
+            var redeclared = localInCurrentScope(stmt.name.lexeme);
+            if (redeclared == -1) addLocal(stmt.name.lexeme);
+            function(stmt);
+            defineVariable(stmt.name, redeclared);
+        } else {
+            function(stmt);
+            defineVariable(stmt.name, -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        var thenJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+        compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            patchJump(thenJump);
+            return null;
+        }
+        var elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        // Any code after the return still counts the slots it has.
+        var stack = current.stack;
+        line = stmt.keyword.line;
+        if (stmt.tailCall) {
+            var call = (Expr.Call) stmt.value;
+            compile(call.callue);
+            call.arguments.forEach(this::compile);
+            line = call.paren.line;
+            emit(OpCode.TAIL_CALL, call.arguments.size());
+        } else if (stmt.value == null) {
+            emit(OpCode.NIL);
+        } else {
+            compile(stmt.value);
+        }
+        emit(OpCode.RETURN);
+        current.stack = stack;
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) {
+            emit(OpCode.NIL);
+        } else {
+            compile(stmt.initializer);
+        }
+
+        line = stmt.name.line;
+        if (current.scopeDepth > 0) {
+            var redeclared = localInCurrentScope(stmt.name.lexeme);
+            if (redeclared == -1) addLocal(stmt.name.lexeme);
+            defineVariable(stmt.name, redeclared);
+        } else {
+            defineVariable(stmt.name, -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        var loopStart = chunk().count;
+        compile(stmt.condition);
+        var exitJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+
+        var loop = new Loop(loopStart, current.scopeDepth);
+        current.loops.add(loop);
+        compile(stmt.body);
+        current.loops.remove(current.loops.size() - 1);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        loop.breaks.forEach(this::patchJump);
+        return null;
+    }
+}
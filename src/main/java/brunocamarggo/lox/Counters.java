@@ -0,0 +1,22 @@
+package brunocamarggo.lox;
+
+/**
+ * What one backend has done since a context last collected it. Plain
+ * fields, as only the thread running the context ever touches them.
+ * Every backend counts statements and calls the same way. Environments
+ * are what each allocates to hold variables: Environment objects in the
+ * Interpreter and node tree, none in Jit code, which keeps them in JVM
+ * locals, and the upvalues closures capture in the VM, whose locals live
+ * on its stack.
+ */
+final class Counters {
+    long statements;
+    long calls;
+    long environments;
+
+    void reset() {
+        statements = 0;
+        calls = 0;
+        environments = 0;
+    }
+}
@@ -1,46 +1,45 @@
 package brunocamarggo.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class Environment {
 
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    final Object[] values;
 
-    public Environment() {
-        this.enclosing = null;
+    public Environment(Environment enclosing, int slots) {
+        this.enclosing = enclosing;
+        this.values = new Object[slots];
     }
 
-    public Environment(Environment enclosing) {
+    private Environment(Environment enclosing, Object[] values) {
         this.enclosing = enclosing;
+        this.values = values;
     }
 
-    Object get(Token name) {
-        if(values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-
-        if (enclosing != null) return enclosing.get(name);
-
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    /** A function's environment, whose first slots are the arguments. */
+    static Environment frame(Environment enclosing, Object[] arguments, int slots) {
+        if (arguments.length < slots) arguments = Arrays.copyOf(arguments, slots);
+        return new Environment(enclosing, arguments);
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
+    Object getAt(int depth, int slot) {
+        return ancestor(depth).values[slot];
+    }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
+    void assignAt(int depth, int slot, Object value) {
+        ancestor(depth).values[slot] = value;
+    }
 
-        throw  new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    void define(int slot, Object value) {
+        values[slot] = value;
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
+    private Environment ancestor(int depth) {
+        var environment = this;
+        for (int i = 0; i < depth; i++) {
+            environment = environment.enclosing;
+        }
+        return environment;
     }
 }
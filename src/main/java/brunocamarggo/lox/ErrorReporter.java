@@ -0,0 +1,74 @@
+package brunocamarggo.lox;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Where one context's errors go. The scanner, parser and resolver report
+ * syntax errors here as they find them; runtime errors are reported once
+ * a run stops. Output the context has buffered is flushed before each
+ * error, so the two come out in the order they happened.
+ */
+class ErrorReporter {
+
+    private final PrintStream err;
+    private final Flushable output;
+
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+
+    ErrorReporter(PrintStream err) {
+        this(err, () -> {});
+    }
+
+    ErrorReporter(PrintStream err, Flushable output) {
+        this.err = err;
+        this.output = output;
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    private void report(int line, String where, String message) {
+        flushOutput();
+        err.println("[line " + line + "] Error " + where + ":" + message);
+        hadError = true;
+    }
+
+    void runtimeError(RuntimeError error) {
+        flushOutput();
+        err.println(error.getMessage() +
+                "\n[line " + error.token.line + "]");
+        hadRuntimeError = true;
+    }
+
+    /** Replays errors already reported, and formatted, somewhere else. */
+    void compileErrors(String errors) {
+        flushOutput();
+        err.print(errors);
+        hadError = true;
+    }
+
+    private void flushOutput() {
+        try {
+            output.flush();
+        } catch (IOException e) {
+            // Still report the error.
+        }
+    }
+
+    void reset() {
+        hadError = false;
+        hadRuntimeError = false;
+    }
+}
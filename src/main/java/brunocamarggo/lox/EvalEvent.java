@@ -0,0 +1,48 @@
+package brunocamarggo.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * One eval or run of a LoxContext, as a Flight Recorder event so script
+ * latency can be lined up with GC and allocation in the same recording.
+ * LoxMetrics adds up the same numbers whether or not JFR is recording.
+ */
+@Name("brunocamarggo.lox.Eval")
+@Label("Lox Eval")
+@Category("Lox")
+@Description("Scanning, parsing and running one Lox script")
+class EvalEvent extends Event {
+
+    @Label("Backend")
+    String backend;
+
+    @Label("Result")
+    String result;
+
+    @Label("Scan Time")
+    @Timespan
+    long scanTime;
+
+    @Label("Parse Time")
+    @Description("Parsing and resolving; also scanning when the source is streamed")
+    @Timespan
+    long parseTime;
+
+    @Label("Execute Time")
+    @Timespan
+    long executeTime;
+
+    @Label("Statements Executed")
+    long statements;
+
+    @Label("Function Calls")
+    long calls;
+
+    @Label("Environments Allocated")
+    long environments;
+}
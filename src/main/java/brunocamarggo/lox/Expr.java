@@ -9,6 +9,8 @@ abstract class Expr {
     R visitBinaryExpr(Binary expr);
     R visitCallExpr(Call expr);
     R visitGroupingExpr(Grouping expr);
+    R visitIndexExpr(Index expr);
+    R visitIndexAssignExpr(IndexAssign expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
     R visitUnaryExpr(Unary expr);
@@ -28,6 +30,8 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+    int depth = -1;
+    int slot = -1;
   }
 
   public static class Binary extends Expr {
@@ -45,6 +49,7 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    int specialization;
   }
 
   public static class Call extends Expr {
@@ -62,6 +67,7 @@ abstract class Expr {
     final Expr callue;
     final Token paren;
     final List<Expr> arguments;
+    LoxCallable target;
   }
 
   public static class Grouping extends Expr {
@@ -77,6 +83,42 @@ abstract class Expr {
     final Expr expression;
   }
 
+  public static class Index extends Expr {
+    Index(Expr object, Token bracket, Expr index) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+  }
+
+  public static class IndexAssign extends Expr {
+    IndexAssign(Expr object, Token bracket, Expr index, Expr value) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexAssignExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+    final Expr value;
+  }
+
   public static class Literal extends Expr {
     Literal(Object value) {
       this.value = value;
@@ -88,6 +130,7 @@ abstract class Expr {
     }
 
     final Object value;
+    int line;
   }
 
   public static class Logical extends Expr {
@@ -133,6 +176,8 @@ abstract class Expr {
     }
 
     final Token name;
+    int depth = -1;
+    int slot = -1;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
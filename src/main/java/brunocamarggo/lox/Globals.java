@@ -0,0 +1,80 @@
+package brunocamarggo.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Globals {
+
+    private static final Object UNDEFINED = new Object();
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    private Object[] values = new Object[16];
+
+    public Globals() {
+        Arrays.fill(values, UNDEFINED);
+    }
+
+    int slotOf(String name) {
+        var slot = slots.get(name);
+        if (slot != null) return slot;
+
+        slot = slots.size();
+        if (slot == values.length) {
+            var length = values.length;
+            values = Arrays.copyOf(values, length * 2);
+            Arrays.fill(values, length, values.length, UNDEFINED);
+        }
+        slots.put(name, slot);
+        return slot;
+    }
+
+    /** Every global's name, in slot order. */
+    List<String> names() {
+        var names = new String[slots.size()];
+        slots.forEach((name, slot) -> names[slot] = name);
+        return List.of(names);
+    }
+
+    Object get(Token name, int slot) {
+        var value = values[slot];
+        if (value == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        }
+        return value;
+    }
+
+    /** Like get, but leaves placing the error to the caller, as the VM does. */
+    Object get(String name, int slot) {
+        var value = values[slot];
+        if (value == UNDEFINED) throw new RuntimeError("Undefined variable '" + name + "'.");
+        return value;
+    }
+
+    /** Reads a slot already known to be defined. */
+    Object valueAt(int slot) {
+        return values[slot];
+    }
+
+    void assign(Token name, int slot, Object value) {
+        if (values[slot] == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        }
+        values[slot] = value;
+    }
+
+    /** Like assign, but leaves placing the error to the caller, as the VM does. */
+    void assign(String name, int slot, Object value) {
+        if (values[slot] == UNDEFINED) throw new RuntimeError("Undefined variable '" + name + "'.");
+        values[slot] = value;
+    }
+
+    void define(int slot, Object value) {
+        values[slot] = value;
+    }
+
+    void define(String name, Object value) {
+        define(slotOf(name), value);
+    }
+}
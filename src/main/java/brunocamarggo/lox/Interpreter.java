@@ -3,113 +3,288 @@ package brunocamarggo.lox;
 import java.util.List;
 
 public class Interpreter implements Expr.Visitor<Object>,
-                                    Stmt.Visitor<Void> {
-
-    private static class BreakException extends RuntimeException {}
-    private static class ContinueException extends RuntimeException {}
+                                    Stmt.Visitor<Interpreter.Completion> {
+
+    /**
+     * How a statement finished. Anything other than NORMAL unwinds the
+     * enclosing statements until the loop or function that handles it.
+     */
+    enum Completion {
+        NORMAL,
+        BREAK,
+        CONTINUE,
+        RETURN
+    }
 
-    final Environment globals = new Environment();
-    private Environment environment = globals;
+    // Values of Expr.Binary.specialization.
+    private static final int UNSPECIALIZED = 0;
+    private static final int NUMBERS = 1;
+    private static final int GENERIC = 2;
+
+    final Globals globals = new Globals();
+    private Environment environment = null;
+    private Object returnValue = null;
+    // Set with a RETURN completion by a tail call the Resolver marked,
+    // for the running LoxFunction to make in place of a nested call.
+    LoxCallable tailCallee = null;
+    Object[] tailArguments = null;
+    private final Output out;
+    final Counters counters = new Counters();
+    // Set while profiling, null otherwise.
+    Profiler profiler = null;
+
+    Interpreter(Output out) {
+        this.out = out;
+        Natives.all().forEach(globals::define);
+    }
 
-    Interpreter() {
-        globals.define("block", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+    /** Runs the statements, stopping at the first RuntimeError, which is rethrown. */
+    void interpret(List<Stmt> statements) {
+        if (profiler == null) {
+            statements.forEach(this::execute);
+            return;
+        }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return  (double) System.currentTimeMillis() / 1000.0;
-            }
+        profiler.resume();
+        try {
+            statements.forEach(this::execute);
+        } finally {
+            profiler.pause();
+        }
+    }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
-        });
+    private Completion execute(Stmt stmt) {
+        counters.statements++;
+        if (profiler != null) return executeProfiled(stmt);
+        return stmt.accept(this);
     }
-    void interpret(List<Stmt> statements) {
+
+    private Completion executeProfiled(Stmt stmt) {
+        var line = profiler.line(stmt);
         try {
-            statements.forEach(this::execute);
-        } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            return stmt.accept(this);
+        } finally {
+            profiler.restore(line);
         }
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    Object takeReturnValue() {
+        var value = returnValue;
+        returnValue = null;
+        return value;
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
+        if (object instanceof Double number) return formatNumber(number);
+        return object.toString();
+    }
+
+    private static final String[] SMALL_INTEGERS = new String[1024];
+    static {
+        for (int i = 0; i < SMALL_INTEGERS.length; i++) {
+            SMALL_INTEGERS[i] = Integer.toString(i);
+        }
+    }
 
-        if (object instanceof Double) {
-            var text = object.toString();
-            if(text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
+    /**
+     * Double.toString without a trailing ".0". Whole numbers below 10^7,
+     * which it writes without an exponent, come out the same formatted as
+     * a long, skipping the floating-point conversion and the extra copy.
+     */
+    static String formatNumber(double value) {
+        if (Math.abs(value) < 1e7) {
+            var whole = (long) value;
+            if (whole == value) {
+                if (whole >= 0 && whole < SMALL_INTEGERS.length) {
+                    // -0.0 == 0 too, but prints with its sign.
+                    return whole == 0 && Double.doubleToRawLongBits(value) != 0 ? "-0" : SMALL_INTEGERS[(int) whole];
+                }
+                return Long.toString(whole);
             }
-            return text;
         }
-        return object.toString();
+        var text = Double.toString(value);
+        return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         var value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        if (expr.depth == -1) {
+            globals.assign(expr.name, expr.slot, value);
+        } else {
+            environment.assignAt(expr.depth, expr.slot, value);
+        }
         return value;
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.specialization == NUMBERS) {
+            return numericBinary(expr);
+        }
+
         var left = evaluate(expr.left);
         var right = evaluate(expr.right);
+        if (expr.specialization == UNSPECIALIZED) {
+            expr.specialization = left instanceof Double && right instanceof Double
+                    && isNumeric(expr.operator.type) ? NUMBERS : GENERIC;
+        }
+        return binary(expr.operator, left, right);
+    }
 
-        switch (expr.operator.type) {
+    /**
+     * Evaluates a Binary that has only seen numbers, keeping both operands
+     * unboxed. If an operand turns out not to be a number the node falls
+     * back to GENERIC for good and finishes through the generic path.
+     */
+    private Object numericBinary(Expr.Binary expr) {
+        double left;
+        try {
+            left = evaluateDouble(expr.left);
+        } catch (UnexpectedResult unexpected) {
+            expr.specialization = GENERIC;
+            return binary(expr.operator, unexpected.value, evaluate(expr.right));
+        }
+        double right;
+        try {
+            right = evaluateDouble(expr.right);
+        } catch (UnexpectedResult unexpected) {
+            expr.specialization = GENERIC;
+            return binary(expr.operator, left, unexpected.value);
+        }
+
+        return switch (expr.operator.type) {
+            case GREATER -> left > right;
+            case GREATER_EQUAL -> left >= right;
+            case LESS -> left < right;
+            case LESS_EQUAL -> left <= right;
+            default -> arithmetic(expr.operator, left, right);
+        };
+    }
+
+    /**
+     * Evaluates an expression expected to produce a number without boxing
+     * intermediate results of nested arithmetic. Throws UnexpectedResult,
+     * carrying the already computed value, when the result isn't a number.
+     */
+    private double evaluateDouble(Expr expr) {
+        if (expr instanceof Expr.Binary binary
+                && binary.specialization == NUMBERS
+                && isArithmetic(binary.operator.type)) {
+            double left;
+            try {
+                left = evaluateDouble(binary.left);
+            } catch (UnexpectedResult unexpected) {
+                binary.specialization = GENERIC;
+                throw new UnexpectedResult(binary(binary.operator, unexpected.value, evaluate(binary.right)));
+            }
+            double right;
+            try {
+                right = evaluateDouble(binary.right);
+            } catch (UnexpectedResult unexpected) {
+                binary.specialization = GENERIC;
+                throw new UnexpectedResult(binary(binary.operator, left, unexpected.value));
+            }
+            return arithmetic(binary.operator, left, right);
+        }
+        if (expr instanceof Expr.Literal literal && literal.value instanceof Double value) {
+            return value;
+        }
+        if (expr instanceof Expr.Grouping grouping) {
+            return evaluateDouble(grouping.expression);
+        }
+        if (expr instanceof Expr.Index index) {
+            // Numbers come out of a numeric array without being boxed.
+            var object = evaluate(index.object);
+            var key = evaluate(index.index);
+            if (object instanceof LoxArray array && array.isNumeric()) {
+                try {
+                    return array.getNumber(key);
+                } catch (RuntimeError error) {
+                    throw error.at(index.bracket);
+                }
+            }
+            var value = index(object, key, index.bracket);
+            if (value instanceof Double number) return number;
+            throw new UnexpectedResult(value);
+        }
+
+        var value = evaluate(expr);
+        if (value instanceof Double number) return number;
+        throw new UnexpectedResult(value);
+    }
+
+    private static double arithmetic(Token operator, double left, double right) {
+        switch (operator.type) {
+            case MINUS -> { return left - right; }
+            case STAR -> { return left * right; }
+            case SLASH -> {
+                if (right == 0) {
+                    throw new RuntimeError(operator, "Error division by 0.");
+                }
+                return left / right;
+            }
+            default -> { return left + right; }
+        }
+    }
+
+    private static boolean isArithmetic(TokenType type) {
+        return type == TokenType.MINUS || type == TokenType.PLUS
+                || type == TokenType.STAR || type == TokenType.SLASH;
+    }
+
+    private static boolean isNumeric(TokenType type) {
+        return isArithmetic(type)
+                || type == TokenType.GREATER || type == TokenType.GREATER_EQUAL
+                || type == TokenType.LESS || type == TokenType.LESS_EQUAL;
+    }
+
+    static Object binary(Token operator, Object left, Object right) {
+        switch (operator.type) {
             case GREATER -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left > (double) right;
             }
             case GREATER_EQUAL -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left >= (double) right;
             }
             case LESS -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left < (double) right;
             }
             case LESS_EQUAL -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left <= (double) right;
             }
             case BANG_EQUAL -> { return !isEqual(left, right); }
             case EQUAL_EQUAL -> { return isEqual(left, right); }
             case MINUS -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left - (double) right;
             }
             case SLASH -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 if( (double) right == 0) {
-                    throw new RuntimeError(expr.operator, "Error division by 0.");
+                    throw new RuntimeError(operator, "Error division by 0.");
                 }
                 return (double) left / (double) right;
             }
             case STAR ->  {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left * (double) right;
             }
             case PLUS -> {
-                if (left instanceof String || right instanceof String) {
-                    return stringify(left) + stringify(right);
+                if (LoxString.isString(left) || LoxString.isString(right)) {
+                    return LoxString.concat(left, right);
                 }
 
                 if (left instanceof Double && right instanceof Double) {
                     return (double)left + (double)right;
                 }
 
-                throw new RuntimeError(expr.operator,
+                throw new RuntimeError(operator,
                         "Operands must be two numbers or two strings.");
 
             }
@@ -121,28 +296,106 @@ public class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         var callee = evaluate(expr.callue);
-        var arguments = expr.arguments
-                .stream()
-                .map(this::evaluate)
-                .toList();
+        var arguments = evaluateArguments(expr, callee);
+        try {
+            return target(expr, callee).call(this, arguments);
+        } catch (RuntimeError error) {
+            throw error.at(expr.paren);
+        }
+    }
+
+    /**
+     * Evaluates the arguments into the array the callee will use as its
+     * slots. Its frame size is only known once the site has checked the
+     * callee, so the first call may leave the function to copy them.
+     */
+    private Object[] evaluateArguments(Expr.Call expr, Object callee) {
+        var target = expr.target;
+        var size = callee == target ? target.frameSize() : expr.arguments.size();
+        var arguments = new Object[size];
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            arguments[i] = evaluate(expr.arguments.get(i));
+        }
+        return arguments;
+    }
+
+    private static LoxCallable target(Expr.Call expr, Object callee) {
+        // The argument count of a call site never changes, so a callee that
+        // passed the checks here once can be called again without them.
+        var target = expr.target;
+        if (callee != target) {
+            target = expr.target = checkCallable(callee, expr.arguments.size(), expr.paren);
+        }
+        return target;
+    }
+
+    Object call(Object callee, Object[] arguments, Token paren) {
+        try {
+            return checkCallable(callee, arguments.length, paren).call(this, arguments);
+        } catch (RuntimeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    static LoxCallable checkCallable(Object callee, int argumentCount, Token paren) {
         if (!(callee instanceof LoxCallable function)) {
-            throw new RuntimeError(expr.paren,
+            throw new RuntimeError(paren,
                     "Can only call functions and classes.");
         }
 
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " +
+        if (argumentCount != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
                     function.arity() + " arguments but got " +
-                    arguments.size() + ".");
+                    argumentCount + ".");
         }
-        return function.call(this, arguments);
+        return function;
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    static void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) return;
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        return index(evaluate(expr.object), evaluate(expr.index), expr.bracket);
+    }
+
+    @Override
+    public Object visitIndexAssignExpr(Expr.IndexAssign expr) {
+        var object = evaluate(expr.object);
+        var index = evaluate(expr.index);
+        var value = evaluate(expr.value);
+        setIndex(object, index, value, expr.bracket);
+        return value;
+    }
+
+    static Object index(Object object, Object index, Token bracket) {
+        try {
+            if (object instanceof LoxArray array) return array.get(index);
+            if (object instanceof LoxMap map) return map.get(index);
+        } catch (RuntimeError error) {
+            throw error.at(bracket);
+        }
+        throw new RuntimeError(bracket, "Can only index arrays and maps.");
+    }
+
+    static void setIndex(Object object, Object index, Object value, Token bracket) {
+        try {
+            if (object instanceof LoxArray array) {
+                array.set(index, value);
+                return;
+            }
+            if (object instanceof LoxMap map) {
+                map.put(index, value);
+                return;
+            }
+        } catch (RuntimeError error) {
+            throw error.at(bracket);
+        }
+        throw new RuntimeError(bracket, "Can only index arrays and maps.");
+    }
+
     @Override
     public Object visitGroupingExpr(Expr.Grouping expr) {
         return evaluate(expr.expression);
@@ -189,127 +442,165 @@ public class Interpreter implements Expr.Visitor<Object>,
         return expr.accept(this);
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean) object;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
+        // Only LoxString knows a String with its characters is equal to it.
+        if (b instanceof LoxString) return b.equals(a);
         return a.equals(b);
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.flat) return executeStatements(stmt.statements);
+        counters.environments++;
+        return executeBlock(stmt.statements, new Environment(environment, stmt.slots));
     }
 
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new BreakException();
+    public Completion visitBreakStmt(Stmt.Break stmt) {
+        return Completion.BREAK;
     }
 
     @Override
-    public Void visitContinueStmt(Stmt.Continue stmt) {
-        throw new ContinueException();
+    public Completion visitContinueStmt(Stmt.Continue stmt) {
+        return Completion.CONTINUE;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitForStmt(Stmt.For stmt) {
+    public Completion visitForStmt(Stmt.For stmt) {
         if (stmt.initializer != null) execute(stmt.initializer);
 
         while (isTruthy(evaluate(stmt.condition))) {
-            try {
-                execute(stmt.body);
-                if (stmt.increment != null) evaluate(stmt.increment);
-            }  catch (BreakException breakException) {
-                break;
-            } catch (ContinueException continueException) {
-                if (stmt.increment != null) evaluate(stmt.increment);
-            }
+            var completion = execute(stmt.body);
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
+            if (stmt.increment != null) evaluate(stmt.increment);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
         var function = new LoxFunction(stmt, environment);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+        define(stmt.slot, function);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else {
             if (stmt.elseBranch != null) {
-                execute(stmt.elseBranch);
+                return execute(stmt.elseBranch);
             }
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         var value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
-        return null;
+        print(value);
+        return Completion.NORMAL;
+    }
+
+    void print(Object value) {
+        out.println(stringify(value));
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            var call = (Expr.Call) stmt.value;
+            var callee = evaluate(call.callue);
+            var arguments = evaluateArguments(call, callee);
+            var target = target(call, callee);
+            if (!(target instanceof LoxFunction)) {
+                // Only a function can run in its caller's loop; anything
+                // else is called here, where its errors get this line.
+                returnValue = call(target, arguments, call.paren);
+                return Completion.RETURN;
+            }
+            tailCallee = target;
+            tailArguments = arguments;
+            return Completion.RETURN;
+        }
+
         Object value = null;
         if (stmt.value != null) value = evaluate(stmt.value);
 
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        define(stmt.slot, value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
-            try {
-                execute(stmt.body);
-            } catch (ContinueException continueException) {
-
-            } catch (BreakException breakException) {
-                break;
-            }
+            var completion = execute(stmt.body);
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return environment.get(expr.name);
+        // Globals have no cache at the read site. The Resolver fixes each
+        // global's slot, and redefining the name writes that same slot, so
+        // the slot already is the binding cell a cache would remember. A
+        // check that a cached entry is still current costs as much as the
+        // read itself.
+        if (expr.depth == -1) return globals.get(expr.name, expr.slot);
+        return environment.getAt(expr.depth, expr.slot);
     }
 
-    public void executeBlock(List<Stmt> statements, Environment environment) {
+    private void define(int slot, Object value) {
+        if (environment == null) {
+            globals.define(slot, value);
+        } else {
+            environment.define(slot, value);
+        }
+    }
+
+    public Completion executeBlock(List<Stmt> statements, Environment environment) {
         var previous = this.environment;
         try {
             this.environment = environment;
-            statements.forEach(this::execute);
+            return executeStatements(statements);
         } finally {
             this.environment = previous;
         }
     }
+
+    private Completion executeStatements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            var completion = execute(statement);
+            if (completion != Completion.NORMAL) return completion;
+        }
+        return Completion.NORMAL;
+    }
 }
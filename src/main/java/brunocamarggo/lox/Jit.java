@@ -0,0 +1,524 @@
+package brunocamarggo.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static brunocamarggo.lox.ClassFileWriter.Code.*;
+
+/**
+ * Compiles hot Lox functions into JVM classes so HotSpot sees straight-line
+ * Java code instead of visitor dispatch. LoxFunction asks for a compile once
+ * a declaration has been called {@link #THRESHOLD} times; functions using
+ * anything this compiler doesn't handle keep running in the Interpreter.
+ */
+final class Jit implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    /** Calls before a function is compiled; zero or less turns the Jit off. */
+    static final int THRESHOLD = Integer.getInteger("lox.jit.threshold", 1000);
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String BOOLEAN = "java/lang/Boolean";
+    private static final String TOKEN = "brunocamarggo/lox/Token";
+    private static final String ENVIRONMENT = "brunocamarggo/lox/Environment";
+    private static final String GLOBALS = "brunocamarggo/lox/Globals";
+    private static final String INTERPRETER = "brunocamarggo/lox/Interpreter";
+    private static final String RUNTIME = "brunocamarggo/lox/JitRuntime";
+
+    private static final String OPERATOR = "(Ljava/lang/Object;Ljava/lang/Object;Lbrunocamarggo/lox/Token;)Ljava/lang/Object;";
+
+    // Local variable layout of the generated call method.
+    private static final int THIS = 0;
+    private static final int INTERPRETER_ARG = 1;
+    private static final int CLOSURE_ARG = 2;
+    private static final int ARGUMENTS_ARG = 3;
+    private static final int CONSTANTS = 4;
+    private static final int FIRST_LOCAL = 5;
+
+    private static final int MAX_BRANCH = Short.MAX_VALUE;
+
+    // Caught inside the compile that threw it; never serialized.
+    @SuppressWarnings("serial")
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final String className;
+    private final ClassFileWriter writer;
+    private final ClassFileWriter.Code code;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+    private final List<Integer> scopes = new ArrayList<>();
+    private final List<ClassFileWriter.Label[]> loops = new ArrayList<>();
+    private int nextLocal = FIRST_LOCAL;
+    // Where the function's parameters live and where its body starts, for
+    // tail calls of itself to jump back to.
+    private Stmt.Function function;
+    private int parameters;
+    private ClassFileWriter.Label bodyStart;
+
+    private Jit(String className) {
+        this.className = className;
+        writer = new ClassFileWriter(className, OBJECT);
+        writer.addInterface("brunocamarggo/lox/JitCode");
+        code = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "call",
+                "(Lbrunocamarggo/lox/Interpreter;Lbrunocamarggo/lox/Environment;[Ljava/lang/Object;)Ljava/lang/Object;",
+                4);
+    }
+
+    /** Returns the compiled body, or null if the function has to stay interpreted. */
+    static JitCode compile(Stmt.Function function) {
+        var className = "brunocamarggo/lox/Jit$" + function.name.lexeme;
+        var jit = new Jit(className);
+        try {
+            jit.function(function);
+        } catch (Unsupported unsupported) {
+            return null;
+        }
+        if (jit.code.size() > MAX_BRANCH) return null;
+
+        try {
+            var lookup = MethodHandles.lookup()
+                    .defineHiddenClass(jit.toByteArray(), true);
+            var constructor = lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, Object[].class));
+            return (JitCode) constructor.invoke(jit.constants.toArray());
+        } catch (Throwable e) {
+            if (e instanceof Error && !(e instanceof LinkageError)) throw (Error) e;
+            return null;
+        }
+    }
+
+    private byte[] toByteArray() {
+        writer.addField(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_FINAL, "k", "[Ljava/lang/Object;");
+        var init = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", 2);
+        init.aload(0);
+        init.opWithShort(INVOKESPECIAL, writer.methodRef(OBJECT, "<init>", "()V"), -1);
+        init.aload(0);
+        init.aload(1);
+        init.opWithShort(PUTFIELD, writer.fieldRef(className, "k", "[Ljava/lang/Object;"), -2);
+        init.op(RETURN, 0);
+        return writer.toByteArray();
+    }
+
+    private void function(Stmt.Function function) {
+        code.aload(THIS);
+        code.opWithShort(GETFIELD, writer.fieldRef(className, "k", "[Ljava/lang/Object;"), 0);
+        code.astore(CONSTANTS);
+
+        var base = beginScope(function.slots);
+        for (int i = 0; i < function.params.size(); i++) {
+            code.aload(ARGUMENTS_ARG);
+            code.pushInt(i);
+            code.op(AALOAD, -1);
+            code.astore(base + i);
+        }
+        this.function = function;
+        parameters = base;
+        bodyStart = code.newLabel();
+        code.bind(bodyStart);
+        for (int slot = function.params.size(); slot < function.slots; slot++) {
+            code.op(ACONST_NULL, 1);
+            code.astore(base + slot);
+        }
+        function.body.forEach(this::compile);
+        if (code.isReachable()) {
+            code.op(ACONST_NULL, 1);
+            code.op(ARETURN, -1);
+        }
+        endScope(base);
+    }
+
+    private int beginScope(int slots) {
+        var base = nextLocal;
+        scopes.add(base);
+        nextLocal += slots;
+        return base;
+    }
+
+    private void endScope(int base) {
+        scopes.remove(scopes.size() - 1);
+        nextLocal = base;
+    }
+
+    private void compile(Stmt stmt) {
+        code.aload(INTERPRETER_ARG);
+        invokeRuntime("countStatement", "(Lbrunocamarggo/lox/Interpreter;)V", -1);
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void loadConstant(Object value) {
+        var index = constantIndex.computeIfAbsent(value, key -> {
+            constants.add(key);
+            return constants.size() - 1;
+        });
+        code.aload(CONSTANTS);
+        code.pushInt(index);
+        code.op(AALOAD, -1);
+        if (value instanceof Token) {
+            code.opWithShort(CHECKCAST, writer.classRef(TOKEN), 0);
+        }
+    }
+
+    private void invokeRuntime(String name, String descriptor, int stackEffect) {
+        code.opWithShort(INVOKESTATIC, writer.methodRef(RUNTIME, name, descriptor), stackEffect);
+    }
+
+    private void isTruthy() {
+        invokeRuntime("isTruthy", "(Ljava/lang/Object;)Z", 0);
+    }
+
+    /** JVM local holding a variable of this function, or -1 if it lives in the closure. */
+    private int localFor(int depth, int slot) {
+        if (depth >= scopes.size()) return -1;
+        return scopes.get(scopes.size() - 1 - depth) + slot;
+    }
+
+    private void loadVariable(Token name, int depth, int slot) {
+        if (depth == -1) {
+            code.aload(INTERPRETER_ARG);
+            code.opWithShort(GETFIELD, writer.fieldRef(INTERPRETER, "globals", "Lbrunocamarggo/lox/Globals;"), 0);
+            loadConstant(name);
+            code.pushInt(slot);
+            code.opWithShort(INVOKEVIRTUAL, writer.methodRef(GLOBALS, "get",
+                    "(Lbrunocamarggo/lox/Token;I)Ljava/lang/Object;"), -2);
+            return;
+        }
+        var local = localFor(depth, slot);
+        if (local != -1) {
+            code.aload(local);
+            return;
+        }
+        code.aload(CLOSURE_ARG);
+        code.pushInt(depth - scopes.size());
+        code.pushInt(slot);
+        code.opWithShort(INVOKEVIRTUAL, writer.methodRef(ENVIRONMENT, "getAt", "(II)Ljava/lang/Object;"), -2);
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        if (expr.depth == -1) {
+            code.aload(INTERPRETER_ARG);
+            compile(expr.value);
+            loadConstant(expr.name);
+            code.pushInt(expr.slot);
+            invokeRuntime("assignGlobal",
+                    "(Lbrunocamarggo/lox/Interpreter;Ljava/lang/Object;Lbrunocamarggo/lox/Token;I)Ljava/lang/Object;", -3);
+            return null;
+        }
+        var local = localFor(expr.depth, expr.slot);
+        if (local != -1) {
+            compile(expr.value);
+            code.op(DUP, 1);
+            code.astore(local);
+            return null;
+        }
+        code.aload(CLOSURE_ARG);
+        compile(expr.value);
+        code.pushInt(expr.depth - scopes.size());
+        code.pushInt(expr.slot);
+        invokeRuntime("assignAt",
+                "(Lbrunocamarggo/lox/Environment;Ljava/lang/Object;II)Ljava/lang/Object;", -3);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        switch (expr.operator.type) {
+            case BANG_EQUAL -> invokeRuntime("notEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", -1);
+            case EQUAL_EQUAL -> invokeRuntime("equal", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", -1);
+            default -> {
+                loadConstant(expr.operator);
+                invokeRuntime(operatorMethod(expr.operator.type), OPERATOR, -2);
+            }
+        }
+        return null;
+    }
+
+    private static String operatorMethod(TokenType type) {
+        return switch (type) {
+            case GREATER -> "greater";
+            case GREATER_EQUAL -> "greaterEqual";
+            case LESS -> "less";
+            case LESS_EQUAL -> "lessEqual";
+            case MINUS -> "subtract";
+            case SLASH -> "divide";
+            case STAR -> "multiply";
+            case PLUS -> "add";
+            default -> throw new Unsupported();
+        };
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        code.aload(INTERPRETER_ARG);
+        compile(expr.callue);
+        invokeCallee(expr);
+        return null;
+    }
+
+    /** Calls the callee on the stack, above the interpreter, with the call's arguments. */
+    private void invokeCallee(Expr.Call expr) {
+        code.pushInt(expr.arguments.size());
+        code.opWithShort(ANEWARRAY, writer.classRef(OBJECT), 0);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            code.op(DUP, 1);
+            code.pushInt(i);
+            compile(expr.arguments.get(i));
+            code.op(AASTORE, -3);
+        }
+        loadConstant(expr.paren);
+        invokeRuntime("call",
+                "(Lbrunocamarggo/lox/Interpreter;Ljava/lang/Object;[Ljava/lang/Object;Lbrunocamarggo/lox/Token;)Ljava/lang/Object;", -3);
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        compile(expr.object);
+        compile(expr.index);
+        loadConstant(expr.bracket);
+        invokeRuntime("index", "(Ljava/lang/Object;Ljava/lang/Object;Lbrunocamarggo/lox/Token;)Ljava/lang/Object;", -2);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexAssignExpr(Expr.IndexAssign expr) {
+        compile(expr.object);
+        compile(expr.index);
+        compile(expr.value);
+        loadConstant(expr.bracket);
+        invokeRuntime("setIndex",
+                "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;Lbrunocamarggo/lox/Token;)Ljava/lang/Object;", -3);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            code.op(ACONST_NULL, 1);
+        } else if (expr.value instanceof Boolean bool) {
+            code.opWithShort(GETSTATIC, writer.fieldRef(BOOLEAN, bool ? "TRUE" : "FALSE", "Ljava/lang/Boolean;"), 1);
+        } else if (expr.value instanceof String string) {
+            code.ldc(writer.string(string));
+        } else {
+            loadConstant(expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        var end = code.newLabel();
+        compile(expr.left);
+        code.op(DUP, 1);
+        isTruthy();
+        code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+        code.op(POP, -1);
+        compile(expr.right);
+        code.bind(end);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        switch (expr.operator.type) {
+            case MINUS -> {
+                loadConstant(expr.operator);
+                invokeRuntime("negate", "(Ljava/lang/Object;Lbrunocamarggo/lox/Token;)Ljava/lang/Object;", -1);
+            }
+            case BANG -> invokeRuntime("not", "(Ljava/lang/Object;)Ljava/lang/Object;", 0);
+            default -> throw new Unsupported();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        loadVariable(expr.name, expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.flat) {
+            stmt.statements.forEach(this::compile);
+            return null;
+        }
+
+        var base = beginScope(stmt.slots);
+        for (int slot = 0; slot < stmt.slots; slot++) {
+            code.op(ACONST_NULL, 1);
+            code.astore(base + slot);
+        }
+        stmt.statements.forEach(this::compile);
+        endScope(base);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        code.jump(GOTO, loops.get(loops.size() - 1)[0]);
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        code.jump(GOTO, loops.get(loops.size() - 1)[1]);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        code.op(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null) compile(stmt.initializer);
+
+        var start = code.newLabel();
+        var next = code.newLabel();
+        var end = code.newLabel();
+        code.bind(start);
+        compile(stmt.condition);
+        isTruthy();
+        code.jump(IFEQ, end);
+
+        loops.add(new ClassFileWriter.Label[] {end, next});
+        compile(stmt.body);
+        loops.remove(loops.size() - 1);
+
+        code.bind(next);
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            code.op(POP, -1);
+        }
+        code.jump(GOTO, start);
+        code.bind(end);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // Nested functions capture the frame, which compiled code keeps in
+        // JVM locals rather than an Environment.
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        var otherwise = code.newLabel();
+        var end = code.newLabel();
+        compile(stmt.condition);
+        isTruthy();
+        code.jump(IFEQ, otherwise);
+        compile(stmt.thenBranch);
+        code.jump(GOTO, end);
+        code.bind(otherwise);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        code.bind(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        code.aload(INTERPRETER_ARG);
+        compile(stmt.expression);
+        invokeRuntime("print", "(Lbrunocamarggo/lox/Interpreter;Ljava/lang/Object;)V", -2);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            tailCall((Expr.Call) stmt.value);
+            return null;
+        }
+        if (stmt.value == null) {
+            code.op(ACONST_NULL, 1);
+        } else {
+            compile(stmt.value);
+        }
+        code.op(ARETURN, -1);
+        return null;
+    }
+
+    /**
+     * If the callee is still this same closure, the arguments replace the
+     * parameters and the body starts over; otherwise it's an ordinary call.
+     */
+    private void tailCall(Expr.Call call) {
+        var otherwise = code.newLabel();
+        code.aload(INTERPRETER_ARG);
+        compile(call.callue);
+        code.op(DUP, 1);
+        // The Jit state rather than the declaration, which differs in each copy of the tree.
+        loadConstant(function.jit);
+        code.aload(CLOSURE_ARG);
+        invokeRuntime("isSelf", "(Ljava/lang/Object;Ljava/lang/Object;Lbrunocamarggo/lox/Environment;)Z", -2);
+        code.jump(IFEQ, otherwise);
+
+        code.op(POP, -1);
+        code.op(POP, -1);
+        call.arguments.forEach(this::compile);
+        for (int i = call.arguments.size() - 1; i >= 0; i--) {
+            code.astore(parameters + i);
+        }
+        code.aload(INTERPRETER_ARG);
+        invokeRuntime("countCall", "(Lbrunocamarggo/lox/Interpreter;)V", -1);
+        code.jump(GOTO, bodyStart);
+
+        code.bind(otherwise);
+        invokeCallee(call);
+        code.op(ARETURN, -1);
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) {
+            code.op(ACONST_NULL, 1);
+        } else {
+            compile(stmt.initializer);
+        }
+        code.astore(scopes.get(scopes.size() - 1) + stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        var start = code.newLabel();
+        var end = code.newLabel();
+        code.bind(start);
+        compile(stmt.condition);
+        isTruthy();
+        code.jump(IFEQ, end);
+
+        loops.add(new ClassFileWriter.Label[] {end, start});
+        compile(stmt.body);
+        loops.remove(loops.size() - 1);
+
+        code.jump(GOTO, start);
+        code.bind(end);
+        return null;
+    }
+}
@@ -0,0 +1,11 @@
+package brunocamarggo.lox;
+
+/**
+ * A Lox function body compiled to JVM bytecode by the Jit. The generated
+ * class is shared by every closure of the same declaration, so the
+ * closure environment is passed in on each call.
+ */
+interface JitCode {
+
+    Object call(Interpreter interpreter, Environment closure, Object[] arguments);
+}
@@ -0,0 +1,121 @@
+package brunocamarggo.lox;
+
+/**
+ * Operations called from code generated by the Jit. They mirror the
+ * matching cases in Interpreter so compiled and interpreted functions
+ * behave the same, runtime errors included.
+ */
+final class JitRuntime {
+
+    private JitRuntime() {}
+
+    // Compiled code counts what the Interpreter would have. It keeps its
+    // locals in JVM locals, so it allocates no environments to count.
+    static void countStatement(Interpreter interpreter) {
+        interpreter.counters.statements++;
+    }
+
+    static void countCall(Interpreter interpreter) {
+        interpreter.counters.calls++;
+    }
+
+    static boolean isTruthy(Object value) {
+        return Interpreter.isTruthy(value);
+    }
+
+    static Object not(Object value) {
+        return !Interpreter.isTruthy(value);
+    }
+
+    static Object negate(Object value, Token operator) {
+        if (value instanceof Double number) return -number;
+        throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    static Object add(Object left, Object right, Token operator) {
+        if (LoxString.isString(left) || LoxString.isString(right)) {
+            return LoxString.concat(left, right);
+        }
+        if (left instanceof Double a && right instanceof Double b) {
+            return a + b;
+        }
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left - (double) right;
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left * (double) right;
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        if ((double) right == 0) {
+            throw new RuntimeError(operator, "Error division by 0.");
+        }
+        return (double) left / (double) right;
+    }
+
+    static Object greater(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left > (double) right;
+    }
+
+    static Object greaterEqual(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left >= (double) right;
+    }
+
+    static Object less(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left < (double) right;
+    }
+
+    static Object lessEqual(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left <= (double) right;
+    }
+
+    static Object equal(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right) {
+        return !Interpreter.isEqual(left, right);
+    }
+
+    static Object assignGlobal(Interpreter interpreter, Object value, Token name, int slot) {
+        interpreter.globals.assign(name, slot, value);
+        return value;
+    }
+
+    static Object assignAt(Environment environment, Object value, int depth, int slot) {
+        environment.assignAt(depth, slot, value);
+        return value;
+    }
+
+    static Object call(Interpreter interpreter, Object callee, Object[] arguments, Token paren) {
+        return interpreter.call(callee, arguments, paren);
+    }
+
+    static Object index(Object object, Object index, Token bracket) {
+        return Interpreter.index(object, index, bracket);
+    }
+
+    static Object setIndex(Object object, Object index, Object value, Token bracket) {
+        Interpreter.setIndex(object, index, value, bracket);
+        return value;
+    }
+
+    static boolean isSelf(Object callee, Object jit, Environment closure) {
+        return callee instanceof LoxFunction function && function.is((JitState) jit, closure);
+    }
+
+    static void print(Interpreter interpreter, Object value) {
+        interpreter.print(value);
+    }
+}
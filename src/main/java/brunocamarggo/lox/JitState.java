@@ -0,0 +1,31 @@
+package brunocamarggo.lox;
+
+/**
+ * How often one function declaration has been called and what the Jit
+ * made of it. Every copy of the declaration AstCopier makes shares this,
+ * so a compiled script's functions are compiled once, however many runs,
+ * and threads, they are called from. Counting is racy on purpose: a lost
+ * count only delays the compile.
+ */
+final class JitState {
+
+    private int calls;
+    private volatile JitCode code;
+    private volatile boolean compiled;
+
+    /** The compiled body, compiling it once the declaration is hot; null while it isn't, or can't be. */
+    JitCode code(Stmt.Function declaration) {
+        var code = this.code;
+        if (code != null || compiled || Jit.THRESHOLD <= 0) return code;
+        if (++calls < Jit.THRESHOLD) return null;
+        return compile(declaration);
+    }
+
+    private synchronized JitCode compile(Stmt.Function declaration) {
+        if (!compiled) {
+            code = Jit.compile(declaration);
+            compiled = true;
+        }
+        return code;
+    }
+}
@@ -1,84 +1,167 @@
 package brunocamarggo.lox;
 
+import javax.management.JMException;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
 
 
 public class Lox {
 
-    private static final Interpreter INTERPRETER = new Interpreter();
-
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    private static LoxEngine.Backend backend = LoxEngine.Backend.INTERPRETER;
+    private static boolean stream = false;
+    private static boolean snapshot = false;
+    private static boolean parallel = false;
+    private static Path profile = null;
+    private static Path output = null;
+    private static boolean batch = false;
+    private static boolean jmx = false;
+    private static int jobs = Runtime.getRuntime().availableProcessors();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        while (args.length > 0 && args[0].startsWith("--")) {
+            switch (args[0]) {
+                case "--vm" -> backend = LoxEngine.Backend.VM;
+                case "--nodes" -> backend = LoxEngine.Backend.NODES;
+                case "--stream" -> stream = true;
+                case "--snapshot" -> snapshot = true;
+                case "--parallel" -> parallel = true;
+                case "--batch" -> batch = true;
+                case "--jmx" -> jmx = true;
+                default -> {
+                    if (args[0].startsWith("--jobs=")) {
+                        jobs = parseJobs(args[0].substring("--jobs=".length()));
+                    } else if (args[0].startsWith("--profile=")) {
+                        profile = Paths.get(args[0].substring("--profile=".length()));
+                    } else if (args[0].startsWith("--output=")) {
+                        output = Paths.get(args[0].substring("--output=".length()));
+                    } else {
+                        usage();
+                    }
+                }
+            }
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
 
-    public static void main(String[] args) throws IOException {
+        if (profile != null && backend != LoxEngine.Backend.INTERPRETER) usage();
+        if (batch) {
+            if (args.length != 1 || stream || snapshot || parallel || profile != null || output != null) usage();
+            System.exit(runBatch(Paths.get(args[0])));
+        }
 
+        var engine = newEngine();
+        var context = output == null
+                ? engine.newContext(System.out, System.err)
+                : engine.newContext(FileChannel.open(output, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), Charset.defaultCharset(), System.err);
+        if (profile != null) context.startProfiling();
+        var result = LoxContext.Result.OK;
         if(args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
+            usage();
         } else if (args.length == 1) {
-            runFile(args[0]);
+            result = runFile(context, args[0]);
         } else {
-            runPrompt();
+            runPrompt(context);
         }
+
+        if (profile != null) context.writeProfile(System.err, profile);
+        if(result == LoxContext.Result.COMPILE_ERROR) System.exit(65);
+        if(result == LoxContext.Result.RUNTIME_ERROR) System.exit(70);
     }
-    
-    private static void runFile(String path) throws IOException {
-        var bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if(hadError) System.exit(65);
-        if(hadRuntimeError) System.exit(70);
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--vm | --nodes] [--jmx] [--stream | --snapshot | --parallel] [--profile=file] [--output=file] [script]");
+        System.out.println("       jlox [--vm | --nodes] [--jmx] --batch [--jobs=n] directory|manifest");
+        System.exit(64);
     }
 
-    private static void runPrompt() throws IOException {
-        var inputStreamReader = new InputStreamReader(System.in);
-        var bufferedReader = new BufferedReader(inputStreamReader);
-        for(;;) {
-            System.out.println("> ");
-            var line = bufferedReader.readLine();
-            if(line == null) break;
-            run(line);
-            hadError = false;
+    /** An engine for the chosen backend, its metrics in JMX with --jmx. */
+    private static LoxEngine newEngine() {
+        var engine = new LoxEngine(backend);
+        if (jmx) {
+            try {
+                engine.metrics().register("jlox");
+            } catch (JMException e) {
+                System.err.println("Can't register metrics: " + e.getMessage());
+            }
         }
+        return engine;
     }
 
-    private static void run(String source) {
-        var scanner = new Scanner(source);
-        var tokens = scanner.scanTokens();
-        var parser = new Parser(tokens);
-        var statements = parser.parse();
-
-        if(hadError) return;
-        // System.out.println(new AstPrinter().print(statements));
-        INTERPRETER.interpret(statements);
+    private static int parseJobs(String value) {
+        try {
+            var jobs = Integer.parseInt(value);
+            if (jobs > 0) return jobs;
+        } catch (NumberFormatException e) {
+            // Reported as a usage error below.
+        }
+        usage();
+        return 0;
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
+    /**
+     * Runs every script of a batch in a context of its own and prints each
+     * one's output under its name, in order, followed by totals on stderr.
+     * Exits 65 if any script had a compile error, 70 if any failed at
+     * runtime and 66 if any couldn't be read.
+     */
+    private static int runBatch(Path path) throws InterruptedException {
+        List<Path> scripts;
+        try {
+            scripts = BatchRunner.scripts(path);
+        } catch (IOException e) {
+            System.err.println("Can't read batch " + path + ": " + e.getMessage());
+            return 66;
+        }
+        var runner = new BatchRunner(newEngine(), Charset.defaultCharset(), jobs);
+        var statuses = new int[128];
+        var start = System.nanoTime();
+        runner.run(scripts, result -> {
+            System.out.println("==> " + result.script() + " [exit " + result.exitStatus() + "] <==");
+            System.out.print(result.output());
+            if (!result.errors().isEmpty()) {
+                System.err.println("==> " + result.script() + " <==");
+                System.err.print(result.errors());
+            }
+            statuses[result.exitStatus()]++;
+        });
+        var seconds = (System.nanoTime() - start) / 1e9;
+        System.out.flush();
+        System.err.printf("%d scripts in %.3f s (%.1f scripts/s, %d jobs): %d ok, %d compile errors, %d runtime errors, %d unreadable%n",
+                scripts.size(), seconds, scripts.size() / seconds, jobs,
+                statuses[0], statuses[65], statuses[70], statuses[66]);
+
+        if (statuses[65] > 0) return 65;
+        if (statuses[70] > 0) return 70;
+        if (statuses[66] > 0) return 66;
+        return 0;
     }
 
+    private static LoxContext.Result runFile(LoxContext context, String path) throws IOException {
+        if (stream) return context.evalFile(Paths.get(path), Charset.defaultCharset());
+        if (snapshot) return context.evalWithSnapshot(Paths.get(path), Charset.defaultCharset());
 
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error " + where + ":" + message);
-        hadError = true;
+        var bytes = Files.readAllBytes(Paths.get(path));
+        var source = new String(bytes, Charset.defaultCharset());
+        return parallel ? context.evalParallel(source) : context.eval(source);
     }
 
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+    private static void runPrompt(LoxContext context) throws IOException {
+        var inputStreamReader = new InputStreamReader(System.in);
+        var bufferedReader = new BufferedReader(inputStreamReader);
+        for(;;) {
+            System.out.println("> ");
+            var line = bufferedReader.readLine();
+            if(line == null) break;
+            context.eval(line);
         }
     }
-
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() +
-                "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
-    }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,95 @@
+package brunocamarggo.lox;
+
+import java.util.Arrays;
+
+/**
+ * A growable Lox array. While it only ever held numbers they are kept
+ * unboxed in a double[]; the first other value written moves every
+ * element to an Object[] for good.
+ */
+final class LoxArray {
+
+    /** The most elements an array holds, so a script can't run out of heap with one call. */
+    static final int MAX_LENGTH = 1 << 24;
+
+    private double[] numbers;
+    private Object[] values;
+    private int size;
+
+    /** An array of length zeros. */
+    LoxArray(int length) {
+        numbers = new double[Math.max(length, 8)];
+        size = length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isNumeric() {
+        return values == null;
+    }
+
+    Object get(Object index) {
+        var i = checkIndex(index);
+        return values == null ? (Object) numbers[i] : values[i];
+    }
+
+    /** Only for a numeric array. */
+    double getNumber(Object index) {
+        return numbers[checkIndex(index)];
+    }
+
+    void set(Object index, Object value) {
+        var i = checkIndex(index);
+        if (values == null && value instanceof Double number) {
+            numbers[i] = number;
+            return;
+        }
+        if (values == null) box();
+        values[i] = value;
+    }
+
+    void add(Object value) {
+        if (size == MAX_LENGTH) {
+            throw new RuntimeError("Array can't grow past " + MAX_LENGTH + " elements.");
+        }
+        if (values == null && value instanceof Double number) {
+            if (size == numbers.length) numbers = Arrays.copyOf(numbers, Math.min(size * 2, MAX_LENGTH));
+            numbers[size++] = number;
+            return;
+        }
+        if (values == null) box();
+        if (size == values.length) values = Arrays.copyOf(values, Math.min(size * 2, MAX_LENGTH));
+        values[size++] = value;
+    }
+
+    private void box() {
+        values = new Object[numbers.length];
+        for (int i = 0; i < size; i++) {
+            values[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    private int checkIndex(Object index) {
+        if (!(index instanceof Double number) || number != Math.rint(number)) {
+            throw new RuntimeError("Array index must be a whole number.");
+        }
+        if (number < 0 || number >= size) {
+            throw new RuntimeError("Array index " + Interpreter.stringify(number)
+                    + " out of bounds for length " + size + ".");
+        }
+        return (int) (double) number;
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(values == null ? Interpreter.formatNumber(numbers[i]) : Interpreter.stringify(values[i]));
+        }
+        return builder.append(']').toString();
+    }
+}
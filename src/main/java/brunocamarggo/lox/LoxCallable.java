@@ -1,9 +1,18 @@
 package brunocamarggo.lox;
 
-import java.util.List;
-
 public interface LoxCallable {
 
     int arity();
-    Object call(Interpreter interpreter, List<Object> arguments);
+
+    /**
+     * The arguments come first in the array, which may be longer than
+     * arity() and is the callee's own: a function can keep it as the slots
+     * of its environment.
+     */
+    Object call(Interpreter interpreter, Object[] arguments);
+
+    /** How long an argument array has to be for the callee to keep it as is. */
+    default int frameSize() {
+        return arity();
+    }
 }
@@ -0,0 +1,279 @@
+package brunocamarggo.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * One isolated Lox session: globals defined by one eval are visible to
+ * the next, and nothing is shared with other contexts. Contexts can be
+ * used from any thread; evals on the same context run one at a time.
+ */
+public final class LoxContext {
+
+    public enum Result {
+        OK,
+        COMPILE_ERROR,
+        RUNTIME_ERROR
+    }
+
+    private final LoxEngine.Backend backend;
+    private final Output output;
+    private final ErrorReporter reporter;
+    private final LoxMetrics metrics;
+    private boolean fresh = true;
+    // The eval running now, which the phases it goes through add their times to.
+    private EvalEvent event;
+
+    // Only the one for the engine's backend is created.
+    private final Interpreter interpreter;
+    private final VM vm;
+    private final NodeInterpreter nodes;
+
+    LoxContext(LoxEngine.Backend backend, LoxMetrics metrics, Output output, PrintStream err) {
+        this.backend = backend;
+        this.metrics = metrics;
+        this.output = output;
+        this.reporter = new ErrorReporter(err, output);
+        this.interpreter = backend == LoxEngine.Backend.INTERPRETER ? new Interpreter(output) : null;
+        this.vm = backend == LoxEngine.Backend.VM ? new VM(output) : null;
+        this.nodes = backend == LoxEngine.Backend.NODES ? new NodeInterpreter(output) : null;
+    }
+
+    public synchronized Result eval(String source) {
+        begin();
+        var start = System.nanoTime();
+        var tokens = new Scanner(source, reporter).scanTokens();
+        var scanned = System.nanoTime();
+        var statements = new Parser(tokens, reporter).parse();
+        event.scanTime = scanned - start;
+        event.parseTime = System.nanoTime() - scanned;
+
+        if (!reporter.hadError) execute(statements);
+        return end();
+    }
+
+    /**
+     * Like eval, but scans and parses a large source in chunks, in
+     * parallel (see {@link ParallelParser}). Sources too small to split
+     * are parsed in one piece.
+     */
+    public synchronized Result evalParallel(String source) {
+        begin();
+        var start = System.nanoTime();
+        var statements = ParallelParser.parse(source, reporter);
+        // The chunks are scanned and parsed together, so it all counts as parsing.
+        event.parseTime = System.nanoTime() - start;
+
+        if (!reporter.hadError) execute(statements);
+        return end();
+    }
+
+    /**
+     * Runs a script file one top-level declaration at a time, as each is
+     * parsed, so neither the source nor its tokens are ever held in memory
+     * all at once. After an error the rest of the file is still parsed, to
+     * report any other syntax errors, but nothing more is run.
+     */
+    public synchronized Result evalFile(Path path, Charset charset) throws IOException {
+        begin();
+        var start = System.nanoTime();
+        try (var channel = FileChannel.open(path)) {
+            var size = channel.size();
+            var scanner = size <= Integer.MAX_VALUE
+                    ? new Scanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), charset, reporter)
+                    : new Scanner(channel, charset, reporter);
+            var parser = new Parser(scanner, reporter);
+            while (parser.hasNext()) {
+                var statement = parser.next();
+                if (statement == null || reporter.hadError || reporter.hadRuntimeError) continue;
+                execute(List.of(statement));
+            }
+        }
+        // Scanning happens as the parser asks for tokens, so it counts as parsing.
+        event.parseTime = System.nanoTime() - start - event.executeTime;
+        return end();
+    }
+
+    /**
+     * Runs a script file, reusing the parse of an earlier run when the
+     * file hasn't changed since. The parsed tree is kept in a snapshot
+     * next to the script (see {@link AstSnapshot#pathFor}); a missing or
+     * stale snapshot is rewritten once the script parses cleanly, and one
+     * that can't be written is simply not kept.
+     */
+    public synchronized Result evalWithSnapshot(Path path, Charset charset) throws IOException {
+        begin();
+        var start = System.nanoTime();
+        var bytes = Files.readAllBytes(path);
+        var hash = ScriptCache.sha256(bytes);
+        var snapshot = AstSnapshot.pathFor(path);
+
+        var statements = AstSnapshot.load(snapshot, hash);
+        if (statements == null) {
+            var tokens = new Scanner(new String(bytes, charset), reporter).scanTokens();
+            var scanned = System.nanoTime();
+            event.scanTime = scanned - start;
+            start = scanned;
+            statements = new Parser(tokens, reporter).parse();
+            if (reporter.hadError) {
+                event.parseTime = System.nanoTime() - start;
+                return end();
+            }
+            try {
+                AstSnapshot.save(snapshot, hash, statements);
+            } catch (IOException ignored) {
+                // Read-only directory and the like; parse again next time.
+            }
+        }
+        event.parseTime = System.nanoTime() - start;
+
+        execute(statements);
+        return end();
+    }
+
+    /**
+     * Runs a script compiled by an engine with the same backend. Its
+     * globals were laid out for a context that hasn't run anything yet,
+     * so this must be the first thing the context runs.
+     */
+    public synchronized Result run(CompiledScript script) {
+        if (script.backend != backend) {
+            throw new IllegalArgumentException("Script was compiled for the " + script.backend + " backend.");
+        }
+        if (!fresh) {
+            throw new IllegalStateException("A compiled script must be the first thing a context runs.");
+        }
+        begin();
+        if (script.errors != null) {
+            reporter.compileErrors(script.errors);
+            return end();
+        }
+
+        script.globalNames.forEach(globals()::slotOf);
+        var start = System.nanoTime();
+        try {
+            switch (backend) {
+                case VM -> vm.interpret(script.function);
+                case NODES -> nodes.interpret(script.statements);
+                // The tree-walker caches values in the tree, so each run gets its own copy.
+                default -> interpreter.interpret(new AstCopier().copy(script.statements));
+            }
+        } catch (RuntimeError error) {
+            reporter.runtimeError(error);
+        } catch (Throwable unexpected) {
+            output.flush();
+            throw unexpected;
+        }
+        event.executeTime = System.nanoTime() - start;
+        return end();
+    }
+
+    /**
+     * Starts recording call counts and times for everything this context
+     * runs from now on, to be written out by {@link #writeProfile}. Only
+     * the tree-walking interpreter can be profiled.
+     */
+    public synchronized void startProfiling() {
+        if (backend != LoxEngine.Backend.INTERPRETER) {
+            throw new UnsupportedOperationException("Only the " + LoxEngine.Backend.INTERPRETER + " backend can be profiled.");
+        }
+        if (interpreter.profiler == null) interpreter.profiler = new Profiler();
+    }
+
+    /**
+     * Prints per-function and per-line times to report, and writes every
+     * call stack seen to a file flame graph tools can read.
+     */
+    public synchronized void writeProfile(PrintStream report, Path collapsedStacks) throws IOException {
+        if (interpreter == null || interpreter.profiler == null) {
+            throw new IllegalStateException("Profiling was never started.");
+        }
+        interpreter.profiler.report(report);
+        try (var writer = Files.newBufferedWriter(collapsedStacks)) {
+            interpreter.profiler.writeCollapsedStacks(writer);
+        }
+    }
+
+    private Globals globals() {
+        return switch (backend) {
+            case VM -> vm.globals;
+            case NODES -> nodes.globals;
+            default -> interpreter.globals;
+        };
+    }
+
+    private Counters counters() {
+        return switch (backend) {
+            case VM -> vm.counters;
+            case NODES -> nodes.counters;
+            default -> interpreter.counters;
+        };
+    }
+
+    /** Resolves and runs the statements; resolving and compiling count as parse time. */
+    private void execute(List<Stmt> statements) {
+        var start = System.nanoTime();
+        statements = new Optimizer().optimize(statements);
+
+        var globals = globals();
+        new Resolver(globals, reporter).resolve(statements);
+        VMFunction script = null;
+        if (!reporter.hadError && backend == LoxEngine.Backend.VM) {
+            script = new Compiler(globals, reporter).compile(statements);
+        }
+        var resolved = System.nanoTime();
+        event.parseTime += resolved - start;
+        if (reporter.hadError) return;
+
+        try {
+            switch (backend) {
+                case VM -> vm.interpret(script);
+                case NODES -> nodes.interpret(statements);
+                default -> interpreter.interpret(statements);
+            }
+        } catch (RuntimeError error) {
+            reporter.runtimeError(error);
+        } catch (Throwable unexpected) {
+            // Keep what was printed before the failure.
+            output.flush();
+            throw unexpected;
+        } finally {
+            event.executeTime += System.nanoTime() - resolved;
+        }
+    }
+
+    private void begin() {
+        fresh = false;
+        reporter.reset();
+        event = new EvalEvent();
+        event.begin();
+    }
+
+    private Result end() {
+        output.flush();
+        var result = result();
+        var counters = counters();
+        event.end();
+        event.backend = backend.name();
+        event.result = result.name();
+        event.statements = counters.statements;
+        event.calls = counters.calls;
+        event.environments = counters.environments;
+        counters.reset();
+        if (event.shouldCommit()) event.commit();
+        metrics.record(result, event);
+        event = null;
+        return result;
+    }
+
+    private Result result() {
+        if (reporter.hadError) return Result.COMPILE_ERROR;
+        if (reporter.hadRuntimeError) return Result.RUNTIME_ERROR;
+        return Result.OK;
+    }
+}
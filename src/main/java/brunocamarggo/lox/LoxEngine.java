@@ -0,0 +1,85 @@
+package brunocamarggo.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Entry point for embedding Lox. An engine only holds configuration, so
+ * one instance can be shared by any number of threads. Scripts run in the
+ * contexts it creates, each with its own globals, output and errors.
+ */
+public final class LoxEngine {
+
+    public enum Backend {
+        INTERPRETER,
+        VM,
+        NODES
+    }
+
+    private final Backend backend;
+    private final LoxMetrics metrics = new LoxMetrics();
+
+    public LoxEngine() {
+        this(Backend.INTERPRETER);
+    }
+
+    public LoxEngine(Backend backend) {
+        this.backend = backend;
+    }
+
+    public Backend backend() {
+        return backend;
+    }
+
+    /** Totals over every context this engine has created. */
+    public LoxMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * A context whose print statements go to out and whose errors go to
+     * err. Printed lines are buffered and written out in batches, at the
+     * latest when the eval that printed them returns.
+     */
+    public LoxContext newContext(PrintStream out, PrintStream err) {
+        return new LoxContext(backend, metrics, new Output(out), err);
+    }
+
+    /**
+     * A context whose print statements are encoded straight into a channel,
+     * such as a file. The channel is left open.
+     */
+    public LoxContext newContext(WritableByteChannel out, Charset charset, PrintStream err) {
+        return new LoxContext(backend, metrics, new Output(Channels.newWriter(out, charset)), err);
+    }
+
+    /**
+     * Scans, parses, optimizes and resolves the source once, for running
+     * any number of times. A script with errors still compiles; running it
+     * reports the errors.
+     */
+    public CompiledScript compile(String source) {
+        var errors = new ByteArrayOutputStream();
+        var reporter = new ErrorReporter(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        var statements = new Parser(new Scanner(source, reporter).scanTokens(), reporter).parse();
+        if (reporter.hadError) return CompiledScript.failed(backend, errors.toString(StandardCharsets.UTF_8));
+
+        statements = new Optimizer().optimize(statements);
+        // Every context starts out with the natives, in this order.
+        var globals = new Globals();
+        Natives.all().keySet().forEach(globals::slotOf);
+        new Resolver(globals, reporter).resolve(statements);
+
+        VMFunction function = null;
+        if (!reporter.hadError && backend == Backend.VM) {
+            function = new Compiler(globals, reporter).compile(statements);
+        }
+        if (reporter.hadError) return CompiledScript.failed(backend, errors.toString(StandardCharsets.UTF_8));
+        return new CompiledScript(backend, globals.names(), List.copyOf(statements), function);
+    }
+}
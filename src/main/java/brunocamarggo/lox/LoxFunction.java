@@ -1,7 +1,5 @@
 package brunocamarggo.lox;
 
-import java.util.List;
-
 public class LoxFunction implements LoxCallable {
 
     private final Stmt.Function declaration;
@@ -18,17 +16,54 @@ public class LoxFunction implements LoxCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        var enviroment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            enviroment.define(declaration.params.get(i).lexeme, arguments.get(i));
-        }
+    public int frameSize() {
+        return declaration.slots;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        interpreter.counters.calls++;
+        var profiler = interpreter.profiler;
+        if (profiler == null) return invoke(interpreter, arguments);
+
+        // Profiled calls stay out of the Jit, whose code can't report lines.
+        profiler.enter(declaration);
         try {
-            interpreter.executeBlock(declaration.body, enviroment);
-        } catch (Return returnValue) {
-            return returnValue.value;
+            return interpret(interpreter, arguments);
+        } finally {
+            profiler.exit();
         }
-        return null;
+    }
+
+    private Object invoke(Interpreter interpreter, Object[] arguments) {
+        var code = declaration.jit.code(declaration);
+        if (code != null) return code.call(interpreter, closure, arguments);
+        return interpret(interpreter, arguments);
+    }
+
+    private Object interpret(Interpreter interpreter, Object[] arguments) {
+        for (;;) {
+            interpreter.counters.environments++;
+            var enviroment = Environment.frame(closure, arguments, declaration.slots);
+            var completion = interpreter.executeBlock(declaration.body, enviroment);
+            if (completion != Interpreter.Completion.RETURN) return null;
+
+            var callee = interpreter.tailCallee;
+            if (callee == null) return interpreter.takeReturnValue();
+
+            // A tail call of this same function runs again in this loop, so
+            // self-recursion this way takes no Java stack.
+            arguments = interpreter.tailArguments;
+            interpreter.tailCallee = null;
+            interpreter.tailArguments = null;
+            if (callee != this) return callee.call(interpreter, arguments);
+            interpreter.counters.calls++;
+        }
+    }
+
+    /** Whether this is a closure over that environment of the declaration, or a copy of it, with that Jit state. */
+    boolean is(JitState jit, Environment closure) {
+        return declaration.jit == jit && this.closure == closure;
     }
 
     @Override
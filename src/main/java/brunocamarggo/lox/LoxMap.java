@@ -0,0 +1,88 @@
+package brunocamarggo.lox;
+
+/**
+ * A Lox map: an open-addressing hash table with linear probing, kept at
+ * most half full. Keys compare the way == does, so a string built by
+ * concatenation finds the entry its literal made. Reading a missing key
+ * gives nil; nil itself can't be a key.
+ */
+final class LoxMap {
+
+    private Object[] keys = new Object[8];
+    private Object[] values = new Object[8];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    Object get(Object key) {
+        key = checkKey(key);
+        var i = slotOf(keys, key);
+        return keys[i] == null ? null : values[i];
+    }
+
+    void put(Object key, Object value) {
+        key = checkKey(key);
+        var i = slotOf(keys, key);
+        if (keys[i] == null) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                i = slotOf(keys, key);
+            }
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+    }
+
+    LoxArray keys() {
+        var array = new LoxArray(0);
+        for (Object key : keys) {
+            if (key != null) array.add(key);
+        }
+        return array;
+    }
+
+    private static Object checkKey(Object key) {
+        if (key == null) throw new RuntimeError("Map key can't be nil.");
+        return key instanceof LoxString string ? string.toString() : key;
+    }
+
+    /** The slot holding the key, or the empty one it would go in. */
+    private static int slotOf(Object[] keys, Object key) {
+        var mask = keys.length - 1;
+        var hash = key.hashCode();
+        var i = (hash ^ hash >>> 16) & mask;
+        while (keys[i] != null && !keys[i].equals(key)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        var oldKeys = keys;
+        var oldValues = values;
+        keys = new Object[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) continue;
+            var slot = slotOf(keys, oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder("{");
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) continue;
+            if (builder.length() > 1) builder.append(", ");
+            builder.append(Interpreter.stringify(keys[i]))
+                    .append(": ")
+                    .append(Interpreter.stringify(values[i]));
+        }
+        return builder.append('}').toString();
+    }
+}
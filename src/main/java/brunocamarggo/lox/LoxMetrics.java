@@ -0,0 +1,97 @@
+package brunocamarggo.lox;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totals over every context of one engine. Contexts add to them once per
+ * eval, never per statement, so keeping them costs next to nothing; they
+ * only show up in JMX once registered.
+ */
+public final class LoxMetrics implements LoxMetricsMBean {
+
+    private final LongAdder evals = new LongAdder();
+    private final LongAdder compileErrors = new LongAdder();
+    private final LongAdder runtimeErrors = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder environments = new LongAdder();
+    private final LongAdder scanTime = new LongAdder();
+    private final LongAdder parseTime = new LongAdder();
+    private final LongAdder executeTime = new LongAdder();
+
+    LoxMetrics() {}
+
+    /**
+     * Registers these metrics with the platform MBean server as
+     * brunocamarggo.lox:type=LoxEngine,name=<i>name</i>, returning the name
+     * to unregister them by.
+     */
+    public ObjectName register(String name) throws JMException {
+        var objectName = new ObjectName("brunocamarggo.lox:type=LoxEngine,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    void record(LoxContext.Result result, EvalEvent event) {
+        evals.increment();
+        switch (result) {
+            case COMPILE_ERROR -> compileErrors.increment();
+            case RUNTIME_ERROR -> runtimeErrors.increment();
+            default -> {}
+        }
+        statements.add(event.statements);
+        calls.add(event.calls);
+        environments.add(event.environments);
+        scanTime.add(event.scanTime);
+        parseTime.add(event.parseTime);
+        executeTime.add(event.executeTime);
+    }
+
+    @Override
+    public long getEvals() {
+        return evals.sum();
+    }
+
+    @Override
+    public long getCompileErrors() {
+        return compileErrors.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return runtimeErrors.sum();
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statements.sum();
+    }
+
+    @Override
+    public long getFunctionCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getEnvironmentsAllocated() {
+        return environments.sum();
+    }
+
+    @Override
+    public long getScanTime() {
+        return scanTime.sum();
+    }
+
+    @Override
+    public long getParseTime() {
+        return parseTime.sum();
+    }
+
+    @Override
+    public long getExecuteTime() {
+        return executeTime.sum();
+    }
+}
@@ -0,0 +1,23 @@
+package brunocamarggo.lox;
+
+/** The JMX view of {@link LoxMetrics}. Times are totals in nanoseconds. */
+public interface LoxMetricsMBean {
+
+    long getEvals();
+
+    long getCompileErrors();
+
+    long getRuntimeErrors();
+
+    long getStatementsExecuted();
+
+    long getFunctionCalls();
+
+    long getEnvironmentsAllocated();
+
+    long getScanTime();
+
+    long getParseTime();
+
+    long getExecuteTime();
+}
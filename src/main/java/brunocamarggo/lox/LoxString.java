@@ -0,0 +1,93 @@
+package brunocamarggo.lox;
+
+import java.util.ArrayDeque;
+
+/**
+ * A Lox string built by concatenation. Joining two strings only links
+ * them, so appending to a string in a loop no longer copies everything
+ * appended so far each time; the characters are copied once, when the
+ * string is printed or compared. Literals stay plain Java Strings, so a
+ * Lox string value is either one.
+ */
+final class LoxString {
+
+    // Shorter results are cheaper to copy than to link.
+    private static final int MIN_ROPE_LENGTH = 64;
+
+    // Each a String or a LoxString; dropped once the string is flattened.
+    private Object left;
+    private Object right;
+    private final int length;
+    private String flat;
+
+    private LoxString(Object left, Object right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof LoxString;
+    }
+
+    /** Joins two values, at least one of them a string, as the + operator does. */
+    static Object concat(Object left, Object right) {
+        var a = piece(left);
+        var b = piece(right);
+        var length = length(a) + length(b);
+        if (length < MIN_ROPE_LENGTH) return a.toString() + b;
+        return new LoxString(a, b, length);
+    }
+
+    private static Object piece(Object value) {
+        return isString(value) ? value : Interpreter.stringify(value);
+    }
+
+    private static int length(Object piece) {
+        return piece instanceof LoxString rope ? rope.length : ((String) piece).length();
+    }
+
+    /**
+     * Copies the pieces out from the last to the first. Ropes built by
+     * appending in a loop nest as deep as the loop ran, so this walks them
+     * with its own stack rather than recursing.
+     */
+    @Override
+    public String toString() {
+        if (flat != null) return flat;
+
+        var chars = new char[length];
+        var end = length;
+        var pending = new ArrayDeque<Object>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            var piece = pending.pop();
+            if (piece instanceof LoxString rope && rope.flat == null) {
+                pending.push(rope.left);
+                pending.push(rope.right);
+                continue;
+            }
+            var string = piece.toString();
+            end -= string.length();
+            string.getChars(0, string.length(), chars, end);
+        }
+
+        flat = new String(chars);
+        left = null;
+        right = null;
+        return flat;
+    }
+
+    /** Equal to any Lox string, rope or not, with the same characters. */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!isString(other) || length(other) != length) return false;
+        return toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
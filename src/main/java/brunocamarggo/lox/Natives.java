@@ -0,0 +1,58 @@
+package brunocamarggo.lox;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+final class Natives {
+
+    private Natives() {}
+
+    /** A function written in Java. Its errors take the line of the call. */
+    private record Native(int arity, Function<Object[], Object> body) implements LoxCallable {
+
+        @Override
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            return body.apply(arguments);
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    static Map<String, LoxCallable> all() {
+        var natives = new LinkedHashMap<String, LoxCallable>();
+        natives.put("block", new Native(0, arguments -> (double) System.currentTimeMillis() / 1000.0));
+        natives.put("array", new Native(1, arguments -> array(arguments[0])));
+        natives.put("map", new Native(0, arguments -> new LoxMap()));
+        natives.put("len", new Native(1, arguments -> len(arguments[0])));
+        natives.put("push", new Native(2, arguments -> {
+            if (!(arguments[0] instanceof LoxArray array)) throw new RuntimeError("Can only push to arrays.");
+            array.add(arguments[1]);
+            return null;
+        }));
+        natives.put("keys", new Native(1, arguments -> {
+            if (!(arguments[0] instanceof LoxMap map)) throw new RuntimeError("Can only list the keys of maps.");
+            return map.keys();
+        }));
+        return natives;
+    }
+
+    private static LoxArray array(Object length) {
+        if (!(length instanceof Double number) || number < 0 || number != Math.rint(number)
+                || number > LoxArray.MAX_LENGTH) {
+            throw new RuntimeError("Array length must be a whole number from 0 to " + LoxArray.MAX_LENGTH + ".");
+        }
+        return new LoxArray((int) (double) number);
+    }
+
+    private static double len(Object value) {
+        if (value instanceof LoxArray array) return array.size();
+        if (value instanceof LoxMap map) return map.size();
+        if (value instanceof String string) return string.length();
+        if (value instanceof LoxString) return value.toString().length();
+        throw new RuntimeError("Can only take the length of arrays, maps and strings.");
+    }
+}
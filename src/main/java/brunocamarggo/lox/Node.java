@@ -0,0 +1,792 @@
+package brunocamarggo.lox;
+
+import brunocamarggo.lox.Interpreter.Completion;
+
+/**
+ * Executable tree built from the resolved AST by NodeBuilder. Expression
+ * nodes start out uninitialized and, the first time they run, replace
+ * themselves in their parent with a node specialized for the values they
+ * saw. When a later value doesn't fit, a specialized node rewrites itself
+ * to the generic version, which never specializes again.
+ */
+abstract class Node {
+
+    Node parent;
+
+    // A recursive call can run a node again before its first execution
+    // finishes, so a node that was already replaced must not be replaced
+    // a second time.
+    boolean replaced;
+
+    <T extends Node> T adopt(T child) {
+        if (child != null) child.parent = this;
+        return child;
+    }
+
+    <T extends Node> T replace(T replacement) {
+        replaced = true;
+        parent.replaceChild(this, replacement);
+        replacement.parent = parent;
+        return replacement;
+    }
+
+    void replaceChild(Node child, Node replacement) {
+        throw new IllegalStateException(getClass().getSimpleName() + " has no children to replace.");
+    }
+
+    abstract static class ExprNode extends Node {
+
+        abstract Object execute(NodeInterpreter interpreter);
+
+        double executeDouble(NodeInterpreter interpreter) {
+            var value = execute(interpreter);
+            if (value instanceof Double number) return number;
+            throw new UnexpectedResult(value);
+        }
+    }
+
+    abstract static class StmtNode extends Node {
+
+        abstract Completion execute(NodeInterpreter interpreter);
+
+        /** Executes the statement, counting it, as the Interpreter's execute does. */
+        final Completion run(NodeInterpreter interpreter) {
+            interpreter.counters.statements++;
+            return execute(interpreter);
+        }
+    }
+
+    // Expressions
+
+    static final class LiteralNode extends ExprNode {
+        final Object value;
+
+        LiteralNode(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            return value;
+        }
+
+        @Override
+        double executeDouble(NodeInterpreter interpreter) {
+            if (value instanceof Double number) return number;
+            throw new UnexpectedResult(value);
+        }
+    }
+
+    /** Reads a global that may not be defined yet. */
+    static final class GlobalNode extends ExprNode {
+        final Token name;
+        final int slot;
+
+        GlobalNode(Token name, int slot) {
+            this.name = name;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            var value = interpreter.globals.get(name, slot);
+            // Globals can't be undefined again, so later reads skip the check.
+            if (!replaced) replace(new DefinedGlobalNode(slot));
+            return value;
+        }
+    }
+
+    static final class DefinedGlobalNode extends ExprNode {
+        final int slot;
+
+        DefinedGlobalNode(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            return interpreter.globals.valueAt(slot);
+        }
+    }
+
+    static final class LocalNode extends ExprNode {
+        final int depth;
+        final int slot;
+
+        LocalNode(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            return interpreter.environment.getAt(depth, slot);
+        }
+    }
+
+    /** A local of the innermost frame, the most common read by far. */
+    static final class FrameLocalNode extends ExprNode {
+        final int slot;
+
+        FrameLocalNode(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            return interpreter.environment.values[slot];
+        }
+    }
+
+    static final class AssignGlobalNode extends ExprNode {
+        final Token name;
+        final int slot;
+        ExprNode value;
+
+        AssignGlobalNode(Token name, int slot, ExprNode value) {
+            this.name = name;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            var result = value.execute(interpreter);
+            interpreter.globals.assign(name, slot, result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            value = (ExprNode) replacement;
+        }
+    }
+
+    static final class AssignLocalNode extends ExprNode {
+        final int depth;
+        final int slot;
+        ExprNode value;
+
+        AssignLocalNode(int depth, int slot, ExprNode value) {
+            this.depth = depth;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            var result = value.execute(interpreter);
+            interpreter.environment.assignAt(depth, slot, result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            value = (ExprNode) replacement;
+        }
+    }
+
+    abstract static class BinaryNode extends ExprNode {
+        final Token operator;
+        ExprNode left;
+        ExprNode right;
+
+        BinaryNode(Token operator, ExprNode left, ExprNode right) {
+            this.operator = operator;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (left == child) left = (ExprNode) replacement;
+            if (right == child) right = (ExprNode) replacement;
+        }
+
+        Object generalize(Object leftValue, Object rightValue) {
+            if (!replaced) replace(new GenericBinaryNode(operator, left, right));
+            return Interpreter.binary(operator, leftValue, rightValue);
+        }
+    }
+
+    static final class UninitializedBinaryNode extends BinaryNode {
+
+        UninitializedBinaryNode(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            var leftValue = left.execute(interpreter);
+            var rightValue = right.execute(interpreter);
+            var result = Interpreter.binary(operator, leftValue, rightValue);
+
+            if (replaced) return result;
+
+            if (left instanceof LiteralNode && right instanceof LiteralNode) {
+                // Node trees can be shared between threads; a rope can't.
+                replace(new LiteralNode(result instanceof LoxString ? result.toString() : result));
+            } else if (leftValue instanceof Double && rightValue instanceof Double
+                    && NumericBinaryNode.handles(operator.type)) {
+                replace(new NumericBinaryNode(operator, left, right));
+            } else if (operator.type == TokenType.PLUS
+                    && (LoxString.isString(leftValue) || LoxString.isString(rightValue))) {
+                replace(new ConcatNode(operator, left, right));
+            } else {
+                replace(new GenericBinaryNode(operator, left, right));
+            }
+            return result;
+        }
+    }
+
+    /** Arithmetic and comparison on two numbers, without boxing the operands. */
+    static final class NumericBinaryNode extends BinaryNode {
+
+        NumericBinaryNode(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        static boolean handles(TokenType type) {
+            return switch (type) {
+                case PLUS, MINUS, STAR, SLASH, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL -> true;
+                default -> false;
+            };
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            double leftValue;
+            try {
+                leftValue = left.executeDouble(interpreter);
+            } catch (UnexpectedResult unexpected) {
+                return generalize(unexpected.value, right.execute(interpreter));
+            }
+            double rightValue;
+            try {
+                rightValue = right.executeDouble(interpreter);
+            } catch (UnexpectedResult unexpected) {
+                return generalize(leftValue, unexpected.value);
+            }
+
+            return switch (operator.type) {
+                case GREATER -> leftValue > rightValue;
+                case GREATER_EQUAL -> leftValue >= rightValue;
+                case LESS -> leftValue < rightValue;
+                case LESS_EQUAL -> leftValue <= rightValue;
+                default -> arithmetic(leftValue, rightValue);
+            };
+        }
+
+        @Override
+        double executeDouble(NodeInterpreter interpreter) {
+            double leftValue;
+            try {
+                leftValue = left.executeDouble(interpreter);
+            } catch (UnexpectedResult unexpected) {
+                throw new UnexpectedResult(generalize(unexpected.value, right.execute(interpreter)));
+            }
+            double rightValue;
+            try {
+                rightValue = right.executeDouble(interpreter);
+            } catch (UnexpectedResult unexpected) {
+                throw new UnexpectedResult(generalize(leftValue, unexpected.value));
+            }
+
+            return switch (operator.type) {
+                case PLUS, MINUS, STAR, SLASH -> arithmetic(leftValue, rightValue);
+                default -> throw new UnexpectedResult(execute(leftValue, rightValue));
+            };
+        }
+
+        private Object execute(double leftValue, double rightValue) {
+            return switch (operator.type) {
+                case GREATER -> leftValue > rightValue;
+                case GREATER_EQUAL -> leftValue >= rightValue;
+                case LESS -> leftValue < rightValue;
+                default -> leftValue <= rightValue;
+            };
+        }
+
+        private double arithmetic(double leftValue, double rightValue) {
+            switch (operator.type) {
+                case MINUS -> { return leftValue - rightValue; }
+                case STAR -> { return leftValue * rightValue; }
+                case SLASH -> {
+                    if (rightValue == 0) {
+                        throw new RuntimeError(operator, "Error division by 0.");
+                    }
+                    return leftValue / rightValue;
+                }
+                default -> { return leftValue + rightValue; }
+            }
+        }
+    }
+
+    static final class ConcatNode extends BinaryNode {
+
+        ConcatNode(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            var leftValue = left.execute(interpreter);
+            var rightValue = right.execute(interpreter);
+            if (LoxString.isString(leftValue) || LoxString.isString(rightValue)) {
+                return LoxString.concat(leftValue, rightValue);
+            }
+            return generalize(leftValue, rightValue);
+        }
+    }
+
+    static final class GenericBinaryNode extends BinaryNode {
+
+        GenericBinaryNode(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            return Interpreter.binary(operator, left.execute(interpreter), right.execute(interpreter));
+        }
+    }
+
+    static final class LogicalNode extends ExprNode {
+        final boolean isOr;
+        ExprNode left;
+        ExprNode right;
+
+        LogicalNode(boolean isOr, ExprNode left, ExprNode right) {
+            this.isOr = isOr;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            var value = left.execute(interpreter);
+            if (Interpreter.isTruthy(value) == isOr) return value;
+            return right.execute(interpreter);
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (left == child) left = (ExprNode) replacement;
+            if (right == child) right = (ExprNode) replacement;
+        }
+    }
+
+    static final class NotNode extends ExprNode {
+        ExprNode operand;
+
+        NotNode(ExprNode operand) {
+            this.operand = adopt(operand);
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            var result = !Interpreter.isTruthy(operand.execute(interpreter));
+            if (operand instanceof LiteralNode && !replaced) replace(new LiteralNode(result));
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            operand = (ExprNode) replacement;
+        }
+    }
+
+    static final class NegateNode extends ExprNode {
+        final Token operator;
+        ExprNode operand;
+
+        NegateNode(Token operator, ExprNode operand) {
+            this.operator = operator;
+            this.operand = adopt(operand);
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            double result = executeDouble(interpreter);
+            if (operand instanceof LiteralNode && !replaced) replace(new LiteralNode(result));
+            return result;
+        }
+
+        @Override
+        double executeDouble(NodeInterpreter interpreter) {
+            try {
+                return -operand.executeDouble(interpreter);
+            } catch (UnexpectedResult unexpected) {
+                throw new RuntimeError(operator, "Operand must be a number.");
+            }
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            operand = (ExprNode) replacement;
+        }
+    }
+
+    static final class CallNode extends ExprNode {
+        final Token paren;
+        ExprNode callee;
+        final ExprNode[] arguments;
+        // The callee that last passed the checks, as Expr.Call keeps it.
+        private LoxCallable target;
+
+        CallNode(Token paren, ExprNode callee, ExprNode[] arguments) {
+            this.paren = paren;
+            this.callee = adopt(callee);
+            this.arguments = arguments;
+            for (ExprNode argument : arguments) adopt(argument);
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            var function = callee.execute(interpreter);
+            var values = new Object[function == target ? target.frameSize() : arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                values[i] = arguments[i].execute(interpreter);
+            }
+            if (function != target) target = Interpreter.checkCallable(function, arguments.length, paren);
+            try {
+                return target.call(null, values);
+            } catch (RuntimeError error) {
+                throw error.at(paren);
+            }
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (callee == child) callee = (ExprNode) replacement;
+            for (int i = 0; i < arguments.length; i++) {
+                if (arguments[i] == child) arguments[i] = (ExprNode) replacement;
+            }
+        }
+    }
+
+    static final class IndexNode extends ExprNode {
+        final Token bracket;
+        ExprNode object;
+        ExprNode index;
+
+        IndexNode(Token bracket, ExprNode object, ExprNode index) {
+            this.bracket = bracket;
+            this.object = adopt(object);
+            this.index = adopt(index);
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            return Interpreter.index(object.execute(interpreter), index.execute(interpreter), bracket);
+        }
+
+        /** Reads a numeric array without boxing the element. */
+        @Override
+        double executeDouble(NodeInterpreter interpreter) {
+            var array = object.execute(interpreter);
+            var key = index.execute(interpreter);
+            if (array instanceof LoxArray numbers && numbers.isNumeric()) {
+                try {
+                    return numbers.getNumber(key);
+                } catch (RuntimeError error) {
+                    throw error.at(bracket);
+                }
+            }
+            var value = Interpreter.index(array, key, bracket);
+            if (value instanceof Double number) return number;
+            throw new UnexpectedResult(value);
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (object == child) object = (ExprNode) replacement;
+            if (index == child) index = (ExprNode) replacement;
+        }
+    }
+
+    static final class IndexAssignNode extends ExprNode {
+        final Token bracket;
+        ExprNode object;
+        ExprNode index;
+        ExprNode value;
+
+        IndexAssignNode(Token bracket, ExprNode object, ExprNode index, ExprNode value) {
+            this.bracket = bracket;
+            this.object = adopt(object);
+            this.index = adopt(index);
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(NodeInterpreter interpreter) {
+            var array = object.execute(interpreter);
+            var key = index.execute(interpreter);
+            var result = value.execute(interpreter);
+            Interpreter.setIndex(array, key, result, bracket);
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (object == child) object = (ExprNode) replacement;
+            if (index == child) index = (ExprNode) replacement;
+            if (value == child) value = (ExprNode) replacement;
+        }
+    }
+
+    // Statements
+
+    static final class ExpressionNode extends StmtNode {
+        ExprNode expression;
+
+        ExpressionNode(ExprNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        Completion execute(NodeInterpreter interpreter) {
+            expression.execute(interpreter);
+            return Completion.NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            expression = (ExprNode) replacement;
+        }
+    }
+
+    static final class PrintNode extends StmtNode {
+        ExprNode expression;
+
+        PrintNode(ExprNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        Completion execute(NodeInterpreter interpreter) {
+            interpreter.print(expression.execute(interpreter));
+            return Completion.NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            expression = (ExprNode) replacement;
+        }
+    }
+
+    static final class VarNode extends StmtNode {
+        final int slot;
+        ExprNode initializer;
+
+        VarNode(int slot, ExprNode initializer) {
+            this.slot = slot;
+            this.initializer = adopt(initializer);
+        }
+
+        @Override
+        Completion execute(NodeInterpreter interpreter) {
+            var value = initializer == null ? null : initializer.execute(interpreter);
+            interpreter.define(slot, value);
+            return Completion.NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            initializer = (ExprNode) replacement;
+        }
+    }
+
+    static final class FunctionNode extends StmtNode {
+        final String name;
+        final int slot;
+        final int arity;
+        final int slots;
+        final StmtNode[] body;
+
+        FunctionNode(String name, int slot, int arity, int slots, StmtNode[] body) {
+            this.name = name;
+            this.slot = slot;
+            this.arity = arity;
+            this.slots = slots;
+            this.body = body;
+            for (StmtNode statement : body) adopt(statement);
+        }
+
+        @Override
+        Completion execute(NodeInterpreter interpreter) {
+            interpreter.define(slot, new NodeFunction(this, interpreter, interpreter.environment));
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class BlockNode extends StmtNode {
+        final int slots;
+        final StmtNode[] statements;
+
+        BlockNode(int slots, StmtNode[] statements) {
+            this.slots = slots;
+            this.statements = statements;
+            for (StmtNode statement : statements) adopt(statement);
+        }
+
+        @Override
+        Completion execute(NodeInterpreter interpreter) {
+            interpreter.counters.environments++;
+            return interpreter.executeBlock(statements, new Environment(interpreter.environment, slots));
+        }
+    }
+
+    static final class IfNode extends StmtNode {
+        ExprNode condition;
+        final StmtNode thenBranch;
+        final StmtNode elseBranch;
+
+        IfNode(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) {
+            this.condition = adopt(condition);
+            this.thenBranch = adopt(thenBranch);
+            this.elseBranch = adopt(elseBranch);
+        }
+
+        @Override
+        Completion execute(NodeInterpreter interpreter) {
+            if (Interpreter.isTruthy(condition.execute(interpreter))) {
+                return thenBranch.run(interpreter);
+            }
+            if (elseBranch != null) return elseBranch.run(interpreter);
+            return Completion.NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            condition = (ExprNode) replacement;
+        }
+    }
+
+    /** Both while and for loops; a while loop has no initializer or increment. */
+    static final class LoopNode extends StmtNode {
+        final StmtNode initializer;
+        ExprNode condition;
+        ExprNode increment;
+        final StmtNode body;
+
+        LoopNode(StmtNode initializer, ExprNode condition, ExprNode increment, StmtNode body) {
+            this.initializer = adopt(initializer);
+            this.condition = adopt(condition);
+            this.increment = adopt(increment);
+            this.body = adopt(body);
+        }
+
+        @Override
+        Completion execute(NodeInterpreter interpreter) {
+            if (initializer != null) initializer.run(interpreter);
+            while (Interpreter.isTruthy(condition.execute(interpreter))) {
+                var completion = body.run(interpreter);
+                if (completion == Completion.BREAK) break;
+                if (completion == Completion.RETURN) return completion;
+                if (increment != null) increment.execute(interpreter);
+            }
+            return Completion.NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (condition == child) condition = (ExprNode) replacement;
+            if (increment == child) increment = (ExprNode) replacement;
+        }
+    }
+
+    static final class SequenceNode extends StmtNode {
+        final StmtNode[] statements;
+
+        SequenceNode(StmtNode... statements) {
+            this.statements = statements;
+            for (StmtNode statement : statements) adopt(statement);
+        }
+
+        @Override
+        Completion execute(NodeInterpreter interpreter) {
+            for (StmtNode statement : statements) {
+                var completion = statement.run(interpreter);
+                if (completion != Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class JumpNode extends StmtNode {
+        final Completion completion;
+
+        JumpNode(Completion completion) {
+            this.completion = completion;
+        }
+
+        @Override
+        Completion execute(NodeInterpreter interpreter) {
+            return completion;
+        }
+    }
+
+    static final class ReturnNode extends StmtNode {
+        ExprNode value;
+
+        ReturnNode(ExprNode value) {
+            this.value = adopt(value);
+        }
+
+        @Override
+        Completion execute(NodeInterpreter interpreter) {
+            interpreter.returnValue = value == null ? null : value.execute(interpreter);
+            return Completion.RETURN;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            value = (ExprNode) replacement;
+        }
+    }
+
+    /** A return of a call the Resolver found to be a tail call of the function itself. */
+    static final class TailCallNode extends StmtNode {
+        final Token paren;
+        ExprNode callee;
+        final ExprNode[] arguments;
+        private LoxCallable target;
+
+        TailCallNode(Token paren, ExprNode callee, ExprNode[] arguments) {
+            this.paren = paren;
+            this.callee = adopt(callee);
+            this.arguments = arguments;
+            for (ExprNode argument : arguments) adopt(argument);
+        }
+
+        @Override
+        Completion execute(NodeInterpreter interpreter) {
+            var function = callee.execute(interpreter);
+            var values = new Object[function == target ? target.frameSize() : arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                values[i] = arguments[i].execute(interpreter);
+            }
+            if (function != target) target = Interpreter.checkCallable(function, arguments.length, paren);
+            if (!(target instanceof NodeFunction)) {
+                try {
+                    interpreter.returnValue = target.call(null, values);
+                } catch (RuntimeError error) {
+                    throw error.at(paren);
+                }
+                return Completion.RETURN;
+            }
+            interpreter.tailCallee = target;
+            interpreter.tailArguments = values;
+            return Completion.RETURN;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (callee == child) callee = (ExprNode) replacement;
+            for (int i = 0; i < arguments.length; i++) {
+                if (arguments[i] == child) arguments[i] = (ExprNode) replacement;
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package brunocamarggo.lox;
+
+import brunocamarggo.lox.Interpreter.Completion;
+import brunocamarggo.lox.Node.*;
+
+import java.util.List;
+
+/** Turns resolved statements into the uninitialized node tree. */
+class NodeBuilder implements Expr.Visitor<ExprNode>, Stmt.Visitor<StmtNode> {
+
+    StmtNode[] build(List<Stmt> statements) {
+        return statements.stream().map(this::build).toArray(StmtNode[]::new);
+    }
+
+    private StmtNode build(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    private ExprNode build(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        if (expr.depth == -1) {
+            return new AssignGlobalNode(expr.name, expr.slot, build(expr.value));
+        }
+        return new AssignLocalNode(expr.depth, expr.slot, build(expr.value));
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        return new UninitializedBinaryNode(expr.operator, build(expr.left), build(expr.right));
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        var arguments = expr.arguments.stream().map(this::build).toArray(ExprNode[]::new);
+        return new CallNode(expr.paren, build(expr.callue), arguments);
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        return build(expr.expression);
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        return new LiteralNode(expr.value);
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        return new LogicalNode(expr.operator.type == TokenType.OR, build(expr.left), build(expr.right));
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.MINUS) {
+            return new NegateNode(expr.operator, build(expr.right));
+        }
+        return new NotNode(build(expr.right));
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth == -1) return new GlobalNode(expr.name, expr.slot);
+        if (expr.depth == 0) return new FrameLocalNode(expr.slot);
+        return new LocalNode(expr.depth, expr.slot);
+    }
+
+    @Override
+    public ExprNode visitIndexExpr(Expr.Index expr) {
+        return new IndexNode(expr.bracket, build(expr.object), build(expr.index));
+    }
+
+    @Override
+    public ExprNode visitIndexAssignExpr(Expr.IndexAssign expr) {
+        return new IndexAssignNode(expr.bracket, build(expr.object), build(expr.index), build(expr.value));
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.flat) return new SequenceNode(build(stmt.statements));
+        return new BlockNode(stmt.slots, build(stmt.statements));
+    }
+
+    @Override
+    public StmtNode visitBreakStmt(Stmt.Break stmt) {
+        return new JumpNode(Completion.BREAK);
+    }
+
+    @Override
+    public StmtNode visitContinueStmt(Stmt.Continue stmt) {
+        return new JumpNode(Completion.CONTINUE);
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        return new ExpressionNode(build(stmt.expression));
+    }
+
+    @Override
+    public StmtNode visitForStmt(Stmt.For stmt) {
+        return new LoopNode(build(stmt.initializer), build(stmt.condition), build(stmt.increment), build(stmt.body));
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+        return new FunctionNode(stmt.name.lexeme, stmt.slot, stmt.params.size(),
+                stmt.slots, build(stmt.body));
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        return new IfNode(build(stmt.condition), build(stmt.thenBranch), build(stmt.elseBranch));
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        return new PrintNode(build(stmt.expression));
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            var call = (Expr.Call) stmt.value;
+            var arguments = call.arguments.stream().map(this::build).toArray(ExprNode[]::new);
+            return new TailCallNode(call.paren, build(call.callue), arguments);
+        }
+        return new ReturnNode(build(stmt.value));
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt) {
+        return new VarNode(stmt.slot, build(stmt.initializer));
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        return new LoopNode(null, build(stmt.condition), null, build(stmt.body));
+    }
+}
@@ -0,0 +1,49 @@
+package brunocamarggo.lox;
+
+public class NodeFunction implements LoxCallable {
+
+    private final Node.FunctionNode declaration;
+    private final NodeInterpreter interpreter;
+    private final Environment closure;
+
+    NodeFunction(Node.FunctionNode declaration, NodeInterpreter interpreter, Environment closure) {
+        this.declaration = declaration;
+        this.interpreter = interpreter;
+        this.closure = closure;
+    }
+
+    @Override
+    public int arity() {
+        return declaration.arity;
+    }
+
+    @Override
+    public int frameSize() {
+        return declaration.slots;
+    }
+
+    @Override
+    public Object call(Interpreter ignored, Object[] arguments) {
+        for (;;) {
+            interpreter.counters.calls++;
+            interpreter.counters.environments++;
+            var environment = Environment.frame(closure, arguments, declaration.slots);
+            var completion = interpreter.executeBlock(declaration.body, environment);
+            if (completion != Interpreter.Completion.RETURN) return null;
+
+            var callee = interpreter.tailCallee;
+            if (callee == null) return interpreter.takeReturnValue();
+
+            // Tail calls of this function loop here instead of nesting.
+            arguments = interpreter.tailArguments;
+            interpreter.tailCallee = null;
+            interpreter.tailArguments = null;
+            if (callee != this) return callee.call(null, arguments);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + declaration.name + ">";
+    }
+}
@@ -0,0 +1,67 @@
+package brunocamarggo.lox;
+
+import brunocamarggo.lox.Interpreter.Completion;
+import brunocamarggo.lox.Node.StmtNode;
+
+import java.util.List;
+
+/**
+ * Runs the self-specializing node tree built by NodeBuilder. It keeps the
+ * same frames and globals as the Interpreter; the difference is that every
+ * node adapts to the values it sees instead of dispatching on each visit.
+ */
+public class NodeInterpreter {
+
+    final Globals globals = new Globals();
+    Environment environment = null;
+    Object returnValue = null;
+    // Set with a RETURN completion by a TailCallNode, as in the Interpreter.
+    LoxCallable tailCallee = null;
+    Object[] tailArguments = null;
+    final Counters counters = new Counters();
+    private final Output out;
+
+    NodeInterpreter(Output out) {
+        this.out = out;
+        Natives.all().forEach(globals::define);
+    }
+
+    void interpret(List<Stmt> statements) {
+        var nodes = new NodeBuilder().build(statements);
+        for (StmtNode node : nodes) {
+            node.run(this);
+        }
+    }
+
+    Object takeReturnValue() {
+        var value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    void print(Object value) {
+        out.println(Interpreter.stringify(value));
+    }
+
+    void define(int slot, Object value) {
+        if (environment == null) {
+            globals.define(slot, value);
+        } else {
+            environment.define(slot, value);
+        }
+    }
+
+    Completion executeBlock(StmtNode[] statements, Environment environment) {
+        var previous = this.environment;
+        try {
+            this.environment = environment;
+            for (StmtNode statement : statements) {
+                var completion = statement.run(this);
+                if (completion != Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        } finally {
+            this.environment = previous;
+        }
+    }
+}
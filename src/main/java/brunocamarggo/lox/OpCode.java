@@ -0,0 +1,60 @@
+package brunocamarggo.lox;
+
+final class OpCode {
+
+    private OpCode() {}
+
+    static final byte CONSTANT = 0;
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte GET_LOCAL = 5;
+    static final byte SET_LOCAL = 6;
+    static final byte GET_GLOBAL = 7;
+    static final byte DEFINE_GLOBAL = 8;
+    static final byte SET_GLOBAL = 9;
+    static final byte GET_UPVALUE = 10;
+    static final byte SET_UPVALUE = 11;
+    static final byte EQUAL = 12;
+    static final byte NOT_EQUAL = 13;
+    static final byte GREATER = 14;
+    static final byte GREATER_EQUAL = 15;
+    static final byte LESS = 16;
+    static final byte LESS_EQUAL = 17;
+    static final byte ADD = 18;
+    static final byte SUBTRACT = 19;
+    static final byte MULTIPLY = 20;
+    static final byte DIVIDE = 21;
+    static final byte NOT = 22;
+    static final byte NEGATE = 23;
+    static final byte PRINT = 24;
+    static final byte JUMP = 25;
+    static final byte JUMP_IF_FALSE = 26;
+    static final byte LOOP = 27;
+    static final byte CALL = 28;
+    static final byte CLOSURE = 29;
+    static final byte CLOSE_UPVALUE = 30;
+    static final byte RETURN = 31;
+
+    // Fused forms of the most common instruction pairs: each consumes the
+    // value it tests or stores instead of leaving it on the stack.
+    static final byte POP_JUMP_IF_FALSE = 32;
+    static final byte STORE_LOCAL = 33;
+    static final byte STORE_GLOBAL = 34;
+    static final byte STORE_UPVALUE = 35;
+
+    // A CALL that replaces the calling frame when the callee is a closure;
+    // always followed by a RETURN for when it isn't.
+    static final byte TAIL_CALL = 36;
+
+    // Array and map elements: GET_INDEX replaces the object and index with
+    // the element, SET_INDEX replaces the object, index and value with the
+    // value.
+    static final byte GET_INDEX = 37;
+    static final byte SET_INDEX = 38;
+
+    // Starts each statement, so the VM counts statements as the Interpreter
+    // does.
+    static final byte STATEMENT = 39;
+}
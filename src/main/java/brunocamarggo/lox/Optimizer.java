@@ -0,0 +1,196 @@
+package brunocamarggo.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Rewrites the parsed program before it is resolved: folds operators whose
+ * operands are literals, drops groupings, and removes branches and loops
+ * whose condition is a constant. An operation that would fail at runtime,
+ * like a division by zero, is left in place so it still reports its error
+ * when (and only if) it runs.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        var optimized = new ArrayList<Stmt>(statements.size());
+        for (Stmt statement : statements) {
+            var result = optimize(statement);
+            if (result != null) optimized.add(result);
+        }
+        return optimized;
+    }
+
+    /** Returns null when the statement can never have an effect. */
+    private Stmt optimize(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    /** Like optimize, but for places where the grammar needs a statement. */
+    private Stmt optimizeBody(Stmt stmt) {
+        return Objects.requireNonNullElseGet(optimize(stmt), () -> new Stmt.Block(List.of()));
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        return new Expr.Assign(expr.name, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        var left = optimize(expr.left);
+        var right = optimize(expr.right);
+        if (left instanceof Expr.Literal a && right instanceof Expr.Literal b) {
+            try {
+                var value = Interpreter.binary(expr.operator, a.value, b.value);
+                // The tree may be shared between threads, which a rope can't be.
+                if (value instanceof LoxString) value = value.toString();
+                return literal(value, expr.operator);
+            } catch (RuntimeError error) {
+                // Keep it, so the error is reported at runtime.
+            }
+        }
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        var arguments = expr.arguments.stream().map(this::optimize).toList();
+        return new Expr.Call(optimize(expr.callue), expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitIndexExpr(Expr.Index expr) {
+        return new Expr.Index(optimize(expr.object), expr.bracket, optimize(expr.index));
+    }
+
+    @Override
+    public Expr visitIndexAssignExpr(Expr.IndexAssign expr) {
+        return new Expr.IndexAssign(optimize(expr.object), expr.bracket, optimize(expr.index), optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        var left = optimize(expr.left);
+        var right = optimize(expr.right);
+        if (left instanceof Expr.Literal literal) {
+            var truthy = Interpreter.isTruthy(literal.value);
+            var isOr = expr.operator.type == TokenType.OR;
+            return truthy == isOr ? left : right;
+        }
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        var right = optimize(expr.right);
+        if (right instanceof Expr.Literal literal) {
+            switch (expr.operator.type) {
+                case BANG -> { return literal(!Interpreter.isTruthy(literal.value), expr.operator); }
+                case MINUS -> {
+                    if (literal.value instanceof Double value) return literal(-value, expr.operator);
+                }
+            }
+        }
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    /** A folded value, on the line of the operator it came from. */
+    private static Expr.Literal literal(Object value, Token operator) {
+        var literal = new Expr.Literal(value);
+        literal.line = operator.line;
+        return literal;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        return new Stmt.Block(optimize(stmt.statements));
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Stmt.Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new Stmt.Expression(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        var initializer = optimize(stmt.initializer);
+        var condition = optimize(stmt.condition);
+        // The initializer lives in the enclosing scope, so it can stand alone.
+        if (isFalsey(condition)) return initializer;
+        return new Stmt.For(initializer, condition, optimize(stmt.increment), optimizeBody(stmt.body));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return new Stmt.Function(stmt.name, stmt.params, optimize(stmt.body));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        var condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal literal) {
+            return Interpreter.isTruthy(literal.value)
+                    ? optimize(stmt.thenBranch)
+                    : optimize(stmt.elseBranch);
+        }
+        var elseBranch = optimize(stmt.elseBranch);
+        return new Stmt.If(condition, optimizeBody(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        return new Stmt.Return(stmt.keyword, optimize(stmt.value));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        return new Stmt.Var(stmt.name, optimize(stmt.initializer));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        var condition = optimize(stmt.condition);
+        if (isFalsey(condition)) return null;
+        return new Stmt.While(condition, optimizeBody(stmt.body));
+    }
+
+    private static boolean isFalsey(Expr expr) {
+        return expr instanceof Expr.Literal literal && !Interpreter.isTruthy(literal.value);
+    }
+}
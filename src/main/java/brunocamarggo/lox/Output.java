@@ -0,0 +1,57 @@
+package brunocamarggo.lox;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Where print statements write. Lines collect in a buffer that goes out
+ * in one write once it fills, and whenever the context flushes: at the
+ * end of every eval, and before an error is reported, so output and
+ * errors still come out in order. Printing straight to System.out would
+ * lock it and flush it for every line.
+ */
+final class Output implements Flushable {
+
+    /** Characters buffered before a write; zero or less writes every line at once. */
+    static final int BUFFER_SIZE = Integer.getInteger("lox.output.buffer", 1 << 16);
+    // A buffer a very long line grew past this is let go once written.
+    private static final int MAX_RETAINED = Math.max(4 * BUFFER_SIZE, 1 << 16);
+    // What PrintStream.println ends lines with, which print wrote before it was buffered.
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final Appendable target;
+    private final Flushable flushable;
+    private final StringBuilder buffer = new StringBuilder();
+
+    <T extends Appendable & Flushable> Output(T target) {
+        this.target = target;
+        this.flushable = target;
+    }
+
+    void println(String line) {
+        buffer.append(line).append(LINE_SEPARATOR);
+        if (buffer.length() >= BUFFER_SIZE) drain();
+    }
+
+    @Override
+    public void flush() {
+        drain();
+        try {
+            flushable.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void drain() {
+        if (buffer.length() == 0) return;
+        try {
+            target.append(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.setLength(0);
+        if (buffer.capacity() > MAX_RETAINED) buffer.trimToSize();
+    }
+}
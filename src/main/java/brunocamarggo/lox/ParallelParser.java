@@ -0,0 +1,146 @@
+package brunocamarggo.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Scans and parses a large source in chunks, on the common ForkJoinPool.
+ * A quick pass over the characters finds where top-level declarations end:
+ * after a ';' or '}' outside any braces and parentheses, that no 'else'
+ * follows. It skips strings and comments the way the Scanner does, and
+ * counts lines so each chunk's tokens get the lines they'd have had.
+ * The chunks' statements are joined in order.
+ *
+ * <p>A chunk's errors would come out in a different order, and recovery
+ * from them stops at the chunk's end, so when any chunk has an error the
+ * whole source is parsed again, in one piece, to report them.
+ */
+final class ParallelParser {
+
+    /** The smallest chunk worth handing to another thread, in chars. */
+    static final int MIN_CHUNK = 1 << 16;
+
+    /** source[start, end), starting on line. */
+    record Chunk(int start, int end, int line) {}
+
+    private ParallelParser() {}
+
+    static List<Stmt> parse(String source, ErrorReporter reporter) {
+        var chars = source.toCharArray();
+        var size = Math.max(MIN_CHUNK, chars.length / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        var chunks = split(chars, size);
+        if (chunks.size() == 1) return parse(chars, chunks.get(0), reporter);
+
+        var tasks = new ArrayList<ForkJoinTask<List<Stmt>>>(chunks.size());
+        for (Chunk chunk : chunks) {
+            tasks.add(ForkJoinPool.commonPool().submit(() -> parse(chars, chunk)));
+        }
+        var statements = new ArrayList<Stmt>();
+        for (var task : tasks) {
+            var parsed = task.join();
+            if (parsed == null) {
+                tasks.forEach(rest -> rest.cancel(false));
+                return parse(chars, new Chunk(0, chars.length, 1), reporter);
+            }
+            statements.addAll(parsed);
+        }
+        return statements;
+    }
+
+    /** A chunk's statements, or null if it has a syntax error. */
+    private static List<Stmt> parse(char[] source, Chunk chunk) {
+        var reporter = new ErrorReporter(new PrintStream(OutputStream.nullOutputStream()));
+        var statements = parse(source, chunk, reporter);
+        return reporter.hadError ? null : statements;
+    }
+
+    private static List<Stmt> parse(char[] source, Chunk chunk, ErrorReporter reporter) {
+        var tokens = new Scanner(source, chunk.start, chunk.end, chunk.line, reporter).scanTokens();
+        return new Parser(tokens, reporter).parse();
+    }
+
+    /**
+     * Cuts source at the first declaration boundary past every size chars,
+     * leaving the last chunk at least half that. Once braces or parentheses
+     * close more than they open, the rest is left in one chunk, for the
+     * parser to report.
+     */
+    static List<Chunk> split(char[] source, int size) {
+        var chunks = new ArrayList<Chunk>();
+        int length = source.length;
+        int start = 0;
+        int startLine = 1;
+        int line = 1;
+        int braces = 0;
+        int parens = 0;
+
+        int i = 0;
+        while (i < length) {
+            char c = source[i++];
+            switch (c) {
+                case '\n' -> line++;
+                case '"' -> {
+                    while (i < length && source[i] != '"') {
+                        if (source[i] == '\n') line++;
+                        i++;
+                    }
+                    i++;
+                }
+                case '/' -> {
+                    if (i < length && source[i] == '/') {
+                        while (i < length && source[i] != '\n') i++;
+                    } else if (i < length && source[i] == '*') {
+                        i++;
+                        while (i < length && !(source[i] == '*' && i + 1 < length && source[i + 1] == '/')) {
+                            if (source[i] == '\n') line++;
+                            i++;
+                        }
+                        i += 2;
+                    }
+                }
+                case '(' -> parens++;
+                case ')' -> parens--;
+                case '{' -> braces++;
+                case '}' -> braces--;
+                default -> { }
+            }
+            if (braces < 0 || parens < 0) break;
+
+            if ((c == ';' || c == '}') && braces == 0 && parens == 0
+                    && i - start >= size && length - i >= size / 2 && !followedByElse(source, i)) {
+                chunks.add(new Chunk(start, i, startLine));
+                start = i;
+                startLine = line;
+            }
+        }
+        chunks.add(new Chunk(start, length, startLine));
+        return chunks;
+    }
+
+    /** Whether the next word after whitespace and comments is 'else'. */
+    static boolean followedByElse(char[] source, int i) {
+        int length = source.length;
+        for (;;) {
+            while (i < length && (source[i] == ' ' || source[i] == '\r' || source[i] == '\t' || source[i] == '\n')) i++;
+            if (i + 1 >= length || source[i] != '/') break;
+            if (source[i + 1] == '/') {
+                while (i < length && source[i] != '\n') i++;
+            } else if (source[i + 1] == '*') {
+                i += 2;
+                while (i < length && !(source[i] == '*' && i + 1 < length && source[i + 1] == '/')) i++;
+                // An unterminated comment isn't a place to cut.
+                if (i >= length) return true;
+                i += 2;
+            } else {
+                break;
+            }
+        }
+        return i + 4 <= length
+                && source[i] == 'e' && source[i + 1] == 'l' && source[i + 2] == 's' && source[i + 3] == 'e'
+                && (i + 4 == length || !Character.isAlphabetic(source[i + 4]));
+    }
+}
@@ -3,28 +3,52 @@ package brunocamarggo.lox;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import static brunocamarggo.lox.TokenType.*;
 
 public class Parser {
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
-    private int current = 0;
+    // Only the current token and the one before it are kept, so the
+    // tokens can come straight from the Scanner as they are needed.
+    private final Supplier<Token> tokens;
+    private Token previous = null;
+    private Token next;
     private int loopDepth = 0;
+    private final ErrorReporter reporter;
 
-    public Parser(List<Token> tokens) {
+    public Parser(List<Token> tokens, ErrorReporter reporter) {
+        this(tokens.iterator()::next, reporter);
+    }
+
+    public Parser(Scanner scanner, ErrorReporter reporter) {
+        this(scanner::nextToken, reporter);
+    }
+
+    private Parser(Supplier<Token> tokens, ErrorReporter reporter) {
         this.tokens = tokens;
+        this.reporter = reporter;
+        this.next = tokens.get();
     }
 
     List<Stmt> parse() {
         var statements = new ArrayList<Stmt>();
-        while (!isAtEnd()) {
-            statements.add(declaration());
+        while (hasNext()) {
+            statements.add(next());
         }
         return statements;
     }
 
+    boolean hasNext() {
+        return !isAtEnd();
+    }
+
+    /** Parses one top-level declaration; null if it had a syntax error. */
+    Stmt next() {
+        return declaration();
+    }
+
     private Stmt declaration() {
         try {
             if (match(FUN)) return function("function");
@@ -204,6 +228,9 @@ public class Parser {
             if (expr instanceof Expr.Variable variableExpression) {
                 return new Expr.Assign(variableExpression.name, value);
             }
+            if (expr instanceof Expr.Index index) {
+                return new Expr.IndexAssign(index.object, index.bracket, index.index, value);
+            }
 
             error(equals, "Invalid assigment target");
         }
@@ -264,16 +291,19 @@ public class Parser {
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return next;
     }
 
     private Token advance() {
-        if(!isAtEnd()) current++;
+        if(!isAtEnd()) {
+            previous = next;
+            next = tokens.get();
+        }
         return previous();
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return previous;
     }
 
     private Expr comparison() {
@@ -321,6 +351,10 @@ public class Parser {
         while (true) {
             if (match(LEFT_PAREN)) {
                 expr = finishCall(expr);
+            } else if (match(LEFT_BRACKET)) {
+                var index = expression();
+                var bracket = consume(RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
             } else {
                 break;
             }
@@ -346,16 +380,16 @@ public class Parser {
     }
 
     private Expr primary() {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
+        if (match(FALSE)) return literal(false);
+        if (match(TRUE)) return literal(true);
+        if (match(NIL)) return literal(null);
 
         if (match(IDENTIFIER)) {
             return new Expr.Variable(previous());
         }
 
         if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+            return literal(previous().literal);
         }
 
         if (match(LEFT_PAREN)) {
@@ -366,6 +400,13 @@ public class Parser {
         throw error(peek(), "Expect expression.");
     }
 
+    /** A literal on the line of the token just matched. */
+    private Expr.Literal literal(Object value) {
+        var literal = new Expr.Literal(value);
+        literal.line = previous().line;
+        return literal;
+    }
+
     private Token consume(TokenType type, String message) {
         if (check(type)) return advance();
 
@@ -373,7 +414,7 @@ public class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -0,0 +1,208 @@
+package brunocamarggo.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Call counts and times for the tree-walking Interpreter. The Interpreter
+ * reports each statement it runs and LoxFunction each call it makes; time
+ * between two reports is charged to whatever was running, which gives the
+ * exclusive time of every function, line and call stack. Nothing is
+ * recorded unless the Interpreter has a profiler.
+ */
+final class Profiler {
+
+    private static final class Function {
+        final String name;
+        final int line;
+        long calls;
+        long inclusive;
+        long exclusive;
+        // Recursive calls already running, so inclusive time is only counted once.
+        int active;
+
+        Function(String name, int line) {
+            this.name = name;
+            this.line = line;
+        }
+    }
+
+    /** One call stack, as a node in the tree of every stack seen so far. */
+    private static final class Stack {
+        final Function function;
+        final Map<Function, Stack> children = new HashMap<>();
+        long self;
+
+        Stack(Function function) {
+            this.function = function;
+        }
+    }
+
+    private record Frame(Stack stack, int line, long start) {}
+
+    private final Map<Stmt.Function, Function> functions = new IdentityHashMap<>();
+    private final Map<Stmt, Integer> lines = new IdentityHashMap<>();
+    private final Stack root = new Stack(null);
+    private final List<Frame> frames = new ArrayList<>();
+    private long[] lineHits = new long[64];
+    private long[] lineTimes = new long[64];
+
+    private Stack stack = root;
+    private int line = 0;
+    private long last;
+
+    /** Called when the Interpreter starts running, so time spent outside it isn't charged. */
+    void resume() {
+        last = System.nanoTime();
+    }
+
+    void pause() {
+        charge();
+    }
+
+    /** Called before a statement runs; returns the line to restore once it has. */
+    int line(Stmt stmt) {
+        var previous = line;
+        var next = lines.computeIfAbsent(stmt, Profiler::lineOf);
+        if (next <= 0) return previous;
+        if (next >= lineHits.length) {
+            var length = Math.max(next + 1, lineHits.length * 2);
+            lineHits = Arrays.copyOf(lineHits, length);
+            lineTimes = Arrays.copyOf(lineTimes, length);
+        }
+        lineHits[next]++;
+        if (next != line) {
+            charge();
+            line = next;
+        }
+        return previous;
+    }
+
+    void restore(int previous) {
+        if (previous == line) return;
+        charge();
+        line = previous;
+    }
+
+    void enter(Stmt.Function declaration) {
+        charge();
+        var function = functions.computeIfAbsent(declaration,
+                d -> new Function(d.name.lexeme, d.name.line));
+        function.calls++;
+        function.active++;
+        frames.add(new Frame(stack, line, last));
+        stack = stack.children.computeIfAbsent(function, Stack::new);
+    }
+
+    void exit() {
+        charge();
+        var function = stack.function;
+        var frame = frames.remove(frames.size() - 1);
+        if (--function.active == 0) function.inclusive += last - frame.start;
+        stack = frame.stack;
+        line = frame.line;
+    }
+
+    private void charge() {
+        var now = System.nanoTime();
+        var elapsed = now - last;
+        last = now;
+        stack.self += elapsed;
+        if (stack.function != null) stack.function.exclusive += elapsed;
+        if (line > 0) lineTimes[line] += elapsed;
+    }
+
+    /** Prints functions by exclusive time, then lines by time spent on them. */
+    void report(PrintStream out) {
+        out.println("Functions:");
+        out.printf("%-24s %6s %10s %14s %14s%n", "name", "line", "calls", "inclusive ms", "exclusive ms");
+        functions.values().stream()
+                .sorted(Comparator.comparingLong((Function f) -> f.exclusive).reversed())
+                .forEach(f -> out.printf("%-24s %6d %10d %14.3f %14.3f%n",
+                        f.name, f.line, f.calls, millis(f.inclusive), millis(f.exclusive)));
+
+        out.println("Lines:");
+        out.printf("%6s %12s %14s%n", "line", "executions", "self ms");
+        var hot = new ArrayList<Integer>();
+        for (int i = 1; i < lineHits.length; i++) {
+            if (lineHits[i] > 0) hot.add(i);
+        }
+        hot.sort(Comparator.comparingLong((Integer i) -> lineTimes[i]).reversed());
+        for (int i : hot) {
+            out.printf("%6d %12d %14.3f%n", i, lineHits[i], millis(lineTimes[i]));
+        }
+    }
+
+    /**
+     * Writes every call stack with the microseconds spent in it, in the
+     * collapsed format flamegraph.pl and speedscope read: frames joined by
+     * ';', then a space and the count.
+     */
+    void writeCollapsedStacks(Writer out) throws IOException {
+        writeStacks(root, "<script>", out);
+    }
+
+    private static void writeStacks(Stack stack, String path, Writer out) throws IOException {
+        var micros = stack.self / 1000;
+        if (micros > 0) out.write(path + " " + micros + "\n");
+        for (var child : stack.children.values()) {
+            writeStacks(child, path + ";" + child.function.name, out);
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /** The line a statement starts on, or 0 when it has no token to tell. */
+    static int lineOf(Stmt stmt) {
+        if (stmt instanceof Stmt.Var var) return var.name.line;
+        if (stmt instanceof Stmt.Function function) return function.name.line;
+        if (stmt instanceof Stmt.Return ret) return ret.keyword.line;
+        if (stmt instanceof Stmt.Expression expression) return lineOf(expression.expression);
+        if (stmt instanceof Stmt.Print print) return lineOf(print.expression);
+        if (stmt instanceof Stmt.If ifStmt) return lineOf(ifStmt.condition);
+        if (stmt instanceof Stmt.While whileStmt) return lineOf(whileStmt.condition);
+        if (stmt instanceof Stmt.For forStmt) {
+            return forStmt.initializer != null ? lineOf(forStmt.initializer) : lineOf(forStmt.condition);
+        }
+        return 0;
+    }
+
+    private static int lineOf(Expr expr) {
+        if (expr instanceof Expr.Assign assign) return assign.name.line;
+        if (expr instanceof Expr.Variable variable) return variable.name.line;
+        if (expr instanceof Expr.Unary unary) return unary.operator.line;
+        if (expr instanceof Expr.Literal literal) return literal.line;
+        if (expr instanceof Expr.Grouping grouping) return lineOf(grouping.expression);
+        if (expr instanceof Expr.Index index) {
+            var line = lineOf(index.object);
+            return line > 0 ? line : index.bracket.line;
+        }
+        if (expr instanceof Expr.IndexAssign assign) {
+            var line = lineOf(assign.object);
+            return line > 0 ? line : assign.bracket.line;
+        }
+        if (expr instanceof Expr.Call call) {
+            var line = lineOf(call.callue);
+            return line > 0 ? line : call.paren.line;
+        }
+        if (expr instanceof Expr.Binary binary) {
+            var line = lineOf(binary.left);
+            return line > 0 ? line : binary.operator.line;
+        }
+        if (expr instanceof Expr.Logical logical) {
+            var line = lineOf(logical.left);
+            return line > 0 ? line : logical.operator.line;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,321 @@
+package brunocamarggo.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private enum FunctionType {
+        NONE,
+        FUNCTION
+    }
+
+    /**
+     * The names declared in a function or block. A flat block has no
+     * environment at run time: its variables take slots in its frame, the
+     * nearest enclosing scope that does, which hands out slots freed by
+     * the flat blocks before it.
+     */
+    private static final class Scope {
+        final Map<String, Integer> names = new HashMap<>();
+        final Scope frame;
+        // A frame's next free slot and how many it needs; a flat scope's
+        // next is where its frame's free slots started, to give them back.
+        int next;
+        int slots;
+
+        Scope(Scope frame) {
+            this.frame = frame == null ? this : frame;
+        }
+    }
+
+    private final Globals globals;
+    private final List<Scope> scopes = new ArrayList<>();
+    private Set<Stmt.Block> captured = Set.of();
+    private FunctionType currentFunction = FunctionType.NONE;
+    // The function being resolved and the scope its name is declared in,
+    // null for globals, to tell which calls are calls of itself.
+    private Stmt.Function function = null;
+    private Scope functionScope = null;
+    private final ErrorReporter reporter;
+
+    public Resolver(Globals globals, ErrorReporter reporter) {
+        this.globals = globals;
+        this.reporter = reporter;
+    }
+
+    void resolve(List<Stmt> statements) {
+        captured = Captures.in(statements);
+        resolveAll(statements);
+    }
+
+    private void resolveAll(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void beginScope() {
+        scopes.add(new Scope(null));
+    }
+
+    /** Returns the number of slots the scope's environment needs. */
+    private int endScope() {
+        return scopes.remove(scopes.size() - 1).slots;
+    }
+
+    private void beginFlatScope() {
+        var frame = scopes.get(scopes.size() - 1).frame;
+        var scope = new Scope(frame);
+        scope.next = frame.next;
+        scopes.add(scope);
+    }
+
+    private void endFlatScope() {
+        var scope = scopes.remove(scopes.size() - 1);
+        scope.frame.next = scope.next;
+    }
+
+    private int declare(Token name) {
+        if (scopes.isEmpty()) return globals.slotOf(name.lexeme);
+
+        var scope = scopes.get(scopes.size() - 1);
+        var slot = scope.names.get(name.lexeme);
+        if (slot != null) return slot;
+
+        var frame = scope.frame;
+        slot = frame.next++;
+        frame.slots = Math.max(frame.slots, frame.next);
+        scope.names.put(name.lexeme, slot);
+        return slot;
+    }
+
+    /** The innermost scope declaring the name, or null for a global. */
+    private Scope scopeOf(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).names.containsKey(name.lexeme)) return scopes.get(i);
+        }
+        return null;
+    }
+
+    /** How many environments out the name is, counting only scopes that have one. */
+    private int depthOf(Token name) {
+        var depth = 0;
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            var scope = scopes.get(i);
+            if (scope.names.containsKey(name.lexeme)) return depth;
+            if (scope.frame == scope) depth++;
+        }
+        return -1;
+    }
+
+    private int slotOf(Token name) {
+        var scope = scopeOf(name);
+        if (scope == null) return globals.slotOf(name.lexeme);
+        return scope.names.get(name.lexeme);
+    }
+
+    private void resolveFunction(Stmt.Function function) {
+        var enclosingFunction = currentFunction;
+        var enclosingDeclaration = this.function;
+        var enclosingScope = functionScope;
+        currentFunction = FunctionType.FUNCTION;
+        this.function = function;
+        functionScope = scopes.isEmpty() ? null : scopes.get(scopes.size() - 1);
+
+        beginScope();
+        for (Token param : function.params) {
+            declare(param);
+        }
+        resolveAll(function.body);
+        function.slots = endScope();
+
+        currentFunction = enclosingFunction;
+        this.function = enclosingDeclaration;
+        functionScope = enclosingScope;
+    }
+
+    /**
+     * Whether a returned call is the function calling itself with all its
+     * parameters, which the backends run by reusing the caller's frame.
+     * The name could still be reassigned by then, so they check the callee
+     * again when the call is made.
+     */
+    private boolean isSelfCall(Expr value) {
+        if (!(value instanceof Expr.Call call)) return false;
+        if (!(call.callue instanceof Expr.Variable callee)) return false;
+        if (call.arguments.size() != function.params.size()) return false;
+        if (!callee.name.lexeme.equals(function.name.lexeme) || callee.slot != function.slot) return false;
+        return scopeOf(callee.name) == functionScope;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        expr.depth = depthOf(expr.name);
+        expr.slot = slotOf(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callue);
+        for (Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexAssignExpr(Expr.IndexAssign expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        expr.depth = depthOf(expr.name);
+        expr.slot = slotOf(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // A block at the top level has no enclosing environment to share.
+        stmt.flat = !scopes.isEmpty() && !captured.contains(stmt);
+        if (stmt.flat) {
+            beginFlatScope();
+            resolveAll(stmt.statements);
+            endFlatScope();
+            return null;
+        }
+
+        beginScope();
+        resolveAll(stmt.statements);
+        stmt.slots = endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null) resolve(stmt.initializer);
+        resolve(stmt.condition);
+        if (stmt.increment != null) resolve(stmt.increment);
+        resolve(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        stmt.slot = declare(stmt.name);
+        resolveFunction(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null) resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            reporter.error(stmt.keyword, "Can't return from top-level code.");
+        }
+        if (stmt.value != null) resolve(stmt.value);
+        stmt.tailCall = function != null && isSelfCall(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // The initializer is resolved before the name is declared so that
+        // `var a = a;` keeps reading the enclosing `a`.
+        if (stmt.initializer != null) resolve(stmt.initializer);
+        stmt.slot = declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+}
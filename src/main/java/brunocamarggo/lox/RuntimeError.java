@@ -8,4 +8,17 @@ public class RuntimeError extends RuntimeException {
         super(message);
         this.token = token;
     }
+
+    /**
+     * An error raised by code that doesn't know where in the script it was
+     * called from, such as a native; the caller reports it with at().
+     */
+    RuntimeError(String message) {
+        this(null, message);
+    }
+
+    /** This error, placed at the token if it didn't know its place yet. */
+    RuntimeError at(Token token) {
+        return this.token != null ? this : new RuntimeError(token, getMessage());
+    }
 }
@@ -1,7 +1,16 @@
 package brunocamarggo.lox;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
@@ -11,51 +20,164 @@ import static java.lang.Character.isDigit;
 
 public class Scanner {
 
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private static final int BUFFER_SIZE = 8192;
+
+    // The characters being scanned. A scanner over a String holds all of
+    // it; a streaming scanner holds a window that starts at the current
+    // token and is refilled from the decoder as scanning moves forward.
+    private char[] source;
+    private int limit;
+    private int discarded = 0;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder;
+    private boolean endOfInput;
+    private boolean exhausted;
+
+    private final ErrorReporter reporter;
+
+    private Token token;
     private int start = 0;
     private int current = 0;
     private int line =  1;
 
-    private static final Map<String, TokenType> keywords;
+    private static final Map<TokenType, String> punctuation;
 
     static {
-        keywords = new HashMap<>();
-        keywords.put("and",    AND);
-        keywords.put("break", BREAK);
-        keywords.put("class",  CLASS);
-        keywords.put("continue", CONTINUE);
-        keywords.put("else",   ELSE);
-        keywords.put("false",  FALSE);
-        keywords.put("for",    FOR);
-        keywords.put("fun",    FUN);
-        keywords.put("if",     IF);
-        keywords.put("nil",    NIL);
-        keywords.put("or",     OR);
-        keywords.put("print",  PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super",  SUPER);
-        keywords.put("this",   THIS);
-        keywords.put("true",   TRUE);
-        keywords.put("var",    VAR);
-        keywords.put("while",  WHILE);
-    }
-
-    public Scanner(String source) {
+        punctuation = new EnumMap<>(TokenType.class);
+        punctuation.put(LEFT_PAREN,     "(");
+        punctuation.put(RIGHT_PAREN,    ")");
+        punctuation.put(LEFT_BRACE,     "{");
+        punctuation.put(RIGHT_BRACE,    "}");
+        punctuation.put(LEFT_BRACKET,   "[");
+        punctuation.put(RIGHT_BRACKET,  "]");
+        punctuation.put(COMMA,          ",");
+        punctuation.put(DOT,            ".");
+        punctuation.put(MINUS,          "-");
+        punctuation.put(PLUS,           "+");
+        punctuation.put(SEMICOLON,      ";");
+        punctuation.put(SLASH,          "/");
+        punctuation.put(STAR,           "*");
+        punctuation.put(BANG,           "!");
+        punctuation.put(BANG_EQUAL,     "!=");
+        punctuation.put(EQUAL,          "=");
+        punctuation.put(EQUAL_EQUAL,    "==");
+        punctuation.put(GREATER,        ">");
+        punctuation.put(GREATER_EQUAL,  ">=");
+        punctuation.put(LESS,           "<");
+        punctuation.put(LESS_EQUAL,     "<=");
+    }
+
+    private final Symbols symbols = new Symbols();
+
+    public Scanner(String source, ErrorReporter reporter) {
+        this(source.toCharArray(), 0, source.length(), 1, reporter);
+    }
+
+    /**
+     * Scans source[from, to), which starts on the given line. Token offsets
+     * stay relative to the whole of source, so a chunk of a larger script
+     * scans to the tokens the whole script would have there.
+     */
+    Scanner(char[] source, int from, int to, int line, ErrorReporter reporter) {
+        this.reporter = reporter;
         this.source = source;
+        this.limit = to;
+        this.start = from;
+        this.current = from;
+        this.line = line;
+        this.channel = null;
+        this.bytes = null;
+        this.decoder = null;
+        this.exhausted = true;
+    }
+
+    /** Streams the source from a channel, decoding it a buffer at a time. */
+    public Scanner(ReadableByteChannel channel, Charset charset, ErrorReporter reporter) {
+        this(channel, ByteBuffer.allocate(BUFFER_SIZE).flip(), charset, reporter);
+    }
+
+    /** Scans bytes already in memory, like a mapped file, decoding as it goes. */
+    public Scanner(ByteBuffer bytes, Charset charset, ErrorReporter reporter) {
+        this(null, bytes, charset, reporter);
+    }
+
+    private Scanner(ReadableByteChannel channel, ByteBuffer bytes, Charset charset, ErrorReporter reporter) {
+        this.reporter = reporter;
+        this.source = new char[BUFFER_SIZE];
+        this.limit = 0;
+        this.channel = channel;
+        this.bytes = bytes;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.endOfInput = channel == null;
     }
 
     List<Token> scanTokens() {
-        while (!isAtEnd()) {
+        var tokens = new ArrayList<Token>();
+        Token next;
+        do {
+            next = nextToken();
+            tokens.add(next);
+        } while (next.type != EOF);
+        return tokens;
+    }
+
+    /** Scans up to the next token. Once the source is exhausted, returns EOF. */
+    Token nextToken() {
+        token = null;
+        while (token == null) {
             start = current;
+            if (isAtEnd()) return new Token(EOF, "", null, line, discarded + current);
             scanToken();
         }
-        tokens.add(new Token(TokenType.EOF, "", null, line));
-        return tokens;
+        return token;
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= limit && !fill();
+    }
+
+    /**
+     * Decodes more of the input into the window, first dropping everything
+     * before the current token. Returns false when there is nothing left.
+     */
+    private boolean fill() {
+        if (exhausted) return false;
+
+        if (start > 0) {
+            System.arraycopy(source, start, source, 0, limit - start);
+            discarded += start;
+            current -= start;
+            limit -= start;
+            start = 0;
+        }
+
+        try {
+            for (;;) {
+                if (limit == source.length) source = Arrays.copyOf(source, source.length * 2);
+                var out = CharBuffer.wrap(source, limit, source.length - limit);
+                var result = decoder.decode(bytes, out, endOfInput);
+                if (endOfInput && result.isUnderflow()) {
+                    decoder.flush(out);
+                    exhausted = true;
+                }
+                if (out.position() > limit) {
+                    limit = out.position();
+                    return true;
+                }
+                if (exhausted) return false;
+                if (!result.isOverflow()) {
+                    bytes.compact();
+                    endOfInput = channel.read(bytes) == -1;
+                    bytes.flip();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     private void scanToken() {
@@ -65,6 +187,8 @@ public class Scanner {
             case ')' -> addToken(RIGHT_PAREN);
             case '{' -> addToken(LEFT_BRACE);
             case '}' -> addToken(RIGHT_BRACE);
+            case '[' -> addToken(LEFT_BRACKET);
+            case ']' -> addToken(RIGHT_BRACKET);
             case ',' -> addToken(COMMA);
             case '.' -> addToken(DOT);
             case '-' -> addToken(MINUS);
@@ -93,7 +217,7 @@ public class Scanner {
                 } else if (isAlphabetic(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character: " + c);
+                    reporter.error(line, "Unexpected character: " + c);
                 }
 
             }
@@ -111,30 +235,35 @@ public class Scanner {
             }
             advance();
             if(isAtEnd()) {
-                Lox.error(line, "Unterminated block comment");
+                reporter.error(line, "Unterminated block comment");
                 return;
             }
         }
+        if (isAtEnd()) {
+            reporter.error(line, "Unterminated block comment");
+            return;
+        }
         advance();
         advance();
     }
 
     private char advance() {
-        return source.charAt(current++);
+        return source[current++];
     }
 
+    // Punctuation and operators share constant lexemes; everything else is
+    // interned in the symbol table, so repeated tokens don't allocate.
     private void addToken(TokenType type) {
-        addToken(type, null);
+        token = new Token(type, punctuation.get(type), null, line, discarded + start);
     }
 
-    private void addToken(TokenType type, Object literal) {
-        var text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    private void addToken(TokenType type, Symbols.Symbol symbol) {
+        token = new Token(type, symbol.lexeme, symbol.literal, line, discarded + start);
     }
 
     private boolean match(char expected) {
         if(isAtEnd()) return false;
-        if(source.charAt(current) != expected) return false;
+        if(source[current] != expected) return false;
 
         current++;
         return true;
@@ -142,7 +271,7 @@ public class Scanner {
 
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return source[current];
     }
 
     private void string() {
@@ -151,12 +280,11 @@ public class Scanner {
             advance();
         }
         if(isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            reporter.error(line, "Unterminated string.");
             return;
         }
         advance();
-        var value = source.substring(start + 1, current - 1);
-        addToken(STRING, value);
+        addToken(STRING, symbols.string(source, start, current));
     }
 
     private void number() {
@@ -165,24 +293,68 @@ public class Scanner {
             advance();
             while (isDigit(peek())) advance();
         }
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER, symbols.number(source, start, current));
     }
 
     private char peekNext() {
-        if(current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        while (current + 1 >= limit) {
+            if (!fill()) return '\0';
+        }
+        return source[current + 1];
     }
 
     private char peekPrevious() {
         if(current - 1 < 0) return '\0';
-        return source.charAt(current - 1);
+        return source[current - 1];
     }
 
     private void identifier() {
         while (isAlphabetic(peek())) advance();
-        var text = source.substring(start, current);
-        var type = keywords.get(text);
-        if(type == null) type = IDENTIFIER;
-        addToken(type);
+        addToken(keyword(), symbols.identifier(source, start, current));
+    }
+
+    private TokenType keyword() {
+        return switch (source[start]) {
+            case 'a' -> keyword(1, "nd", AND);
+            case 'b' -> keyword(1, "reak", BREAK);
+            case 'c' -> current - start > 1 && source[start + 1] == 'l'
+                    ? keyword(2, "ass", CLASS)
+                    : keyword(1, "ontinue", CONTINUE);
+            case 'e' -> keyword(1, "lse", ELSE);
+            case 'f' -> {
+                if (current - start < 2) yield IDENTIFIER;
+                yield switch (source[start + 1]) {
+                    case 'a' -> keyword(2, "lse", FALSE);
+                    case 'o' -> keyword(2, "r", FOR);
+                    case 'u' -> keyword(2, "n", FUN);
+                    default -> IDENTIFIER;
+                };
+            }
+            case 'i' -> keyword(1, "f", IF);
+            case 'n' -> keyword(1, "il", NIL);
+            case 'o' -> keyword(1, "r", OR);
+            case 'p' -> keyword(1, "rint", PRINT);
+            case 'r' -> keyword(1, "eturn", RETURN);
+            case 's' -> keyword(1, "uper", SUPER);
+            case 't' -> {
+                if (current - start < 2) yield IDENTIFIER;
+                yield switch (source[start + 1]) {
+                    case 'h' -> keyword(2, "is", THIS);
+                    case 'r' -> keyword(2, "ue", TRUE);
+                    default -> IDENTIFIER;
+                };
+            }
+            case 'v' -> keyword(1, "ar", VAR);
+            case 'w' -> keyword(1, "hile", WHILE);
+            default -> IDENTIFIER;
+        };
+    }
+
+    private TokenType keyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) return IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (source[start + offset + i] != rest.charAt(i)) return IDENTIFIER;
+        }
+        return type;
     }
 }
@@ -0,0 +1,80 @@
+package brunocamarggo.lox;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled scripts of one engine, keyed by the SHA-256 of their source
+ * and evicting the least recently used once full. Safe to share between
+ * threads. Sources are compiled outside the lock, so two threads missing
+ * on the same source at once may both compile it; the first one cached
+ * wins.
+ */
+public final class ScriptCache {
+
+    public record Stats(long hits, long misses, long evictions, int size) {}
+
+    private final LoxEngine engine;
+    private final int capacity;
+    private final LinkedHashMap<String, CompiledScript> scripts;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public ScriptCache(LoxEngine engine, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1.");
+        this.engine = engine;
+        this.capacity = capacity;
+        this.scripts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                if (size() <= ScriptCache.this.capacity) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    public CompiledScript get(String source) {
+        var key = hash(source);
+        synchronized (this) {
+            var script = scripts.get(key);
+            if (script != null) {
+                hits++;
+                return script;
+            }
+            misses++;
+        }
+
+        var compiled = engine.compile(source);
+        synchronized (this) {
+            var script = scripts.putIfAbsent(key, compiled);
+            return script != null ? script : compiled;
+        }
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, scripts.size());
+    }
+
+    public synchronized void clear() {
+        scripts.clear();
+    }
+
+    private static String hash(String source) {
+        return HexFormat.of().formatHex(sha256(source.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+}
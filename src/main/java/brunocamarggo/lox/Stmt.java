@@ -29,6 +29,8 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+    int slots;
+    boolean flat;
   }
 
   public static class Break extends Stmt {
@@ -100,6 +102,9 @@ abstract class Stmt {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    int slot;
+    int slots;
+    JitState jit = new JitState();
   }
 
   public static class If extends Stmt {
@@ -145,6 +150,7 @@ abstract class Stmt {
 
     final Token keyword;
     final Expr value;
+    boolean tailCall;
   }
 
   public static class Var extends Stmt {
@@ -160,6 +166,7 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+    int slot;
   }
 
   public static class While extends Stmt {
@@ -0,0 +1,128 @@
+package brunocamarggo.lox;
+
+/**
+ * The Scanner's table of identifier, number and string lexemes. Lookups
+ * hash the characters in place, so a lexeme and its literal value are
+ * only created the first time they appear in the source.
+ */
+final class Symbols {
+
+    static final class Symbol {
+        final String lexeme;
+        final Object literal;
+
+        private Symbol(String lexeme, Object literal) {
+            this.lexeme = lexeme;
+            this.literal = literal;
+        }
+    }
+
+    // Exact powers of ten; dividing by one of these rounds correctly.
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15
+    };
+    private static final int MAX_FAST_DIGITS = 15;
+
+    private Symbol[] symbols = new Symbol[256];
+    private int[] hashes = new int[256];
+    private int count = 0;
+
+    Symbol identifier(char[] source, int start, int end) {
+        return lookup(source, start, end, null);
+    }
+
+    Symbol string(char[] source, int start, int end) {
+        return lookup(source, start, end, STRING);
+    }
+
+    Symbol number(char[] source, int start, int end) {
+        return lookup(source, start, end, NUMBER);
+    }
+
+    private interface Literal {
+        Object of(char[] source, int start, int end);
+    }
+
+    private static final Literal STRING = (source, start, end) -> new String(source, start + 1, end - start - 2);
+    private static final Literal NUMBER = Symbols::parseNumber;
+
+    private Symbol lookup(char[] source, int start, int end, Literal literal) {
+        var hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source[i];
+        }
+
+        var mask = symbols.length - 1;
+        var index = (hash ^ hash >>> 16) & mask;
+        var length = end - start;
+        for (;;) {
+            var symbol = symbols[index];
+            if (symbol == null) break;
+            if (hashes[index] == hash && matches(symbol.lexeme, source, start, length)) {
+                return symbol;
+            }
+            index = (index + 1) & mask;
+        }
+
+        var symbol = new Symbol(new String(source, start, length),
+                literal == null ? null : literal.of(source, start, end));
+        symbols[index] = symbol;
+        hashes[index] = hash;
+        if (++count * 2 > symbols.length) grow();
+        return symbol;
+    }
+
+    private static boolean matches(String lexeme, char[] source, int start, int length) {
+        if (lexeme.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (lexeme.charAt(i) != source[start + i]) return false;
+        }
+        return true;
+    }
+
+    private void grow() {
+        var oldSymbols = symbols;
+        var oldHashes = hashes;
+        symbols = new Symbol[oldSymbols.length * 2];
+        hashes = new int[oldSymbols.length * 2];
+        var mask = symbols.length - 1;
+        for (int i = 0; i < oldSymbols.length; i++) {
+            if (oldSymbols[i] == null) continue;
+            var hash = oldHashes[i];
+            var index = (hash ^ hash >>> 16) & mask;
+            while (symbols[index] != null) index = (index + 1) & mask;
+            symbols[index] = oldSymbols[i];
+            hashes[index] = hash;
+        }
+    }
+
+    /**
+     * Numbers of up to 15 significant digits fit exactly in a double, as
+     * do the powers of ten they're scaled by, so one division gives the
+     * same result as Double.parseDouble. Longer numbers go through it.
+     */
+    static Double parseNumber(char[] source, int start, int end) {
+        long mantissa = 0;
+        var digits = 0;
+        var fractionDigits = -1;
+        for (int i = start; i < end; i++) {
+            var c = source[i];
+            if (c == '.') {
+                fractionDigits = 0;
+                continue;
+            }
+            // The Scanner accepts any Unicode digit; leave those to parseDouble.
+            if (c < '0' || c > '9') digits = MAX_FAST_DIGITS;
+            mantissa = mantissa * 10 + (c - '0');
+            digits++;
+            if (fractionDigits >= 0) fractionDigits++;
+        }
+
+        if (digits > MAX_FAST_DIGITS) {
+            return Double.parseDouble(new String(source, start, end - start));
+        }
+        if (fractionDigits <= 0) return (double) mantissa;
+        return mantissa / POWERS_OF_TEN[fractionDigits];
+    }
+}
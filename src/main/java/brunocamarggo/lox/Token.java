@@ -6,12 +6,19 @@ public class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    // Where the token starts in the source, or -1 for synthetic tokens.
+    final int offset;
 
     public Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, -1);
+    }
+
+    public Token(TokenType type, String lexeme, Object literal, int line, int offset) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.offset = offset;
     }
 
     @Override
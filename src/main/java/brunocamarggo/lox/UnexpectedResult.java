@@ -0,0 +1,16 @@
+package brunocamarggo.lox;
+
+/**
+ * Thrown by a number-specialized evaluation when the value turns out not
+ * to be a number. It carries the value that was already computed, so the
+ * caller can finish on its generic path without evaluating anything twice.
+ */
+@SuppressWarnings("serial") // Caught where it's thrown; never serialized.
+class UnexpectedResult extends RuntimeException {
+    final Object value;
+
+    UnexpectedResult(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
@@ -0,0 +1,353 @@
+package brunocamarggo.lox;
+
+import java.util.Arrays;
+
+public class VM {
+
+    // The stacks start small and double as calls nest deeper, up to
+    // FRAMES_MAX frames. Each call makes room for its function's maxStack.
+    private static final int FRAMES_MAX = 1 << 16;
+    private static final int INITIAL_FRAMES = 64;
+
+    final Globals globals = new Globals();
+    final Counters counters = new Counters();
+
+    private Object[] stack = new Object[INITIAL_FRAMES * 256];
+    private VMClosure[] frameClosures = new VMClosure[INITIAL_FRAMES];
+    private int[] frameIps = new int[INITIAL_FRAMES];
+    private int[] frameBases = new int[INITIAL_FRAMES];
+    private int frameCount = 0;
+    private VMClosure.Upvalue openUpvalues = null;
+    private final Output out;
+
+    VM(Output out) {
+        this.out = out;
+        Natives.all().forEach(globals::define);
+    }
+
+    void interpret(VMFunction script) {
+        var closure = new VMClosure(script);
+        if (script.maxStack > stack.length) growStack(script.maxStack);
+        stack[0] = closure;
+        frameClosures[0] = closure;
+        frameBases[0] = 0;
+        frameCount = 1;
+        try {
+            run();
+        } finally {
+            Arrays.fill(stack, null);
+            frameCount = 0;
+            openUpvalues = null;
+        }
+    }
+
+    private void run() {
+        var stack = this.stack;
+        var closure = frameClosures[frameCount - 1];
+        var code = closure.function.chunk.code;
+        var constants = closure.function.chunk.constants;
+        var base = frameBases[frameCount - 1];
+        var ip = 0;
+        var sp = 1;
+
+        for (;;) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT -> {
+                    stack[sp++] = constants[(code[ip] & 0xff) << 8 | code[ip + 1] & 0xff];
+                    ip += 2;
+                }
+                case OpCode.NIL -> stack[sp++] = null;
+                case OpCode.TRUE -> stack[sp++] = Boolean.TRUE;
+                case OpCode.FALSE -> stack[sp++] = Boolean.FALSE;
+                case OpCode.POP -> sp--;
+                case OpCode.STATEMENT -> counters.statements++;
+                case OpCode.GET_LOCAL -> stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                case OpCode.SET_LOCAL -> stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                case OpCode.STORE_LOCAL -> stack[base + (code[ip++] & 0xff)] = stack[--sp];
+                case OpCode.GET_GLOBAL -> {
+                    var ref = (Chunk.GlobalRef) constants[(code[ip] & 0xff) << 8 | code[ip + 1] & 0xff];
+                    ip += 2;
+                    try {
+                        stack[sp++] = globals.get(ref.name(), ref.slot());
+                    } catch (RuntimeError error) {
+                        throw error(closure, ip, error.getMessage());
+                    }
+                }
+                case OpCode.DEFINE_GLOBAL -> {
+                    var ref = (Chunk.GlobalRef) constants[(code[ip] & 0xff) << 8 | code[ip + 1] & 0xff];
+                    ip += 2;
+                    globals.define(ref.slot(), stack[--sp]);
+                }
+                case OpCode.SET_GLOBAL -> {
+                    var ref = (Chunk.GlobalRef) constants[(code[ip] & 0xff) << 8 | code[ip + 1] & 0xff];
+                    ip += 2;
+                    try {
+                        globals.assign(ref.name(), ref.slot(), stack[sp - 1]);
+                    } catch (RuntimeError error) {
+                        throw error(closure, ip, error.getMessage());
+                    }
+                }
+                case OpCode.STORE_GLOBAL -> {
+                    var ref = (Chunk.GlobalRef) constants[(code[ip] & 0xff) << 8 | code[ip + 1] & 0xff];
+                    ip += 2;
+                    try {
+                        globals.assign(ref.name(), ref.slot(), stack[--sp]);
+                    } catch (RuntimeError error) {
+                        throw error(closure, ip, error.getMessage());
+                    }
+                }
+                case OpCode.GET_UPVALUE -> stack[sp++] = closure.upvalues[code[ip++] & 0xff].get();
+                case OpCode.SET_UPVALUE -> closure.upvalues[code[ip++] & 0xff].set(stack[sp - 1]);
+                case OpCode.STORE_UPVALUE -> closure.upvalues[code[ip++] & 0xff].set(stack[--sp]);
+                case OpCode.EQUAL -> {
+                    var right = stack[--sp];
+                    stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], right);
+                }
+                case OpCode.NOT_EQUAL -> {
+                    var right = stack[--sp];
+                    stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], right);
+                }
+                case OpCode.GREATER -> {
+                    checkNumberOperands(closure, ip, stack[sp - 2], stack[sp - 1]);
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] > (double) stack[sp];
+                }
+                case OpCode.GREATER_EQUAL -> {
+                    checkNumberOperands(closure, ip, stack[sp - 2], stack[sp - 1]);
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] >= (double) stack[sp];
+                }
+                case OpCode.LESS -> {
+                    checkNumberOperands(closure, ip, stack[sp - 2], stack[sp - 1]);
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] < (double) stack[sp];
+                }
+                case OpCode.LESS_EQUAL -> {
+                    checkNumberOperands(closure, ip, stack[sp - 2], stack[sp - 1]);
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] <= (double) stack[sp];
+                }
+                case OpCode.ADD -> {
+                    var left = stack[sp - 2];
+                    var right = stack[sp - 1];
+                    if (left instanceof Double a && right instanceof Double b) {
+                        stack[sp - 2] = a + b;
+                    } else if (LoxString.isString(left) || LoxString.isString(right)) {
+                        stack[sp - 2] = LoxString.concat(left, right);
+                    } else {
+                        throw error(closure, ip, "Operands must be two numbers or two strings.");
+                    }
+                    sp--;
+                }
+                case OpCode.SUBTRACT -> {
+                    checkNumberOperands(closure, ip, stack[sp - 2], stack[sp - 1]);
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] - (double) stack[sp];
+                }
+                case OpCode.MULTIPLY -> {
+                    checkNumberOperands(closure, ip, stack[sp - 2], stack[sp - 1]);
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] * (double) stack[sp];
+                }
+                case OpCode.DIVIDE -> {
+                    checkNumberOperands(closure, ip, stack[sp - 2], stack[sp - 1]);
+                    if ((double) stack[sp - 1] == 0) {
+                        throw error(closure, ip, "Error division by 0.");
+                    }
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] / (double) stack[sp];
+                }
+                case OpCode.NOT -> stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                case OpCode.NEGATE -> {
+                    if (!(stack[sp - 1] instanceof Double value)) {
+                        throw error(closure, ip, "Operand must be a number.");
+                    }
+                    stack[sp - 1] = -value;
+                }
+                case OpCode.GET_INDEX -> {
+                    try {
+                        stack[sp - 2] = Interpreter.index(stack[sp - 2], stack[sp - 1], null);
+                    } catch (RuntimeError error) {
+                        throw error(closure, ip, error.getMessage());
+                    }
+                    sp--;
+                }
+                case OpCode.SET_INDEX -> {
+                    try {
+                        Interpreter.setIndex(stack[sp - 3], stack[sp - 2], stack[sp - 1], null);
+                    } catch (RuntimeError error) {
+                        throw error(closure, ip, error.getMessage());
+                    }
+                    stack[sp - 3] = stack[sp - 1];
+                    sp -= 2;
+                }
+                case OpCode.PRINT -> {
+                    out.println(Interpreter.stringify(stack[--sp]));
+                }
+                case OpCode.JUMP -> ip += ((code[ip] & 0xff) << 8 | code[ip + 1] & 0xff) + 2;
+                case OpCode.POP_JUMP_IF_FALSE -> {
+                    if (Interpreter.isTruthy(stack[--sp])) {
+                        ip += 2;
+                    } else {
+                        ip += ((code[ip] & 0xff) << 8 | code[ip + 1] & 0xff) + 2;
+                    }
+                }
+                case OpCode.JUMP_IF_FALSE -> {
+                    if (Interpreter.isTruthy(stack[sp - 1])) {
+                        ip += 2;
+                    } else {
+                        ip += ((code[ip] & 0xff) << 8 | code[ip + 1] & 0xff) + 2;
+                    }
+                }
+                case OpCode.LOOP -> ip -= ((code[ip] & 0xff) << 8 | code[ip + 1] & 0xff) - 2;
+                case OpCode.CALL, OpCode.TAIL_CALL -> {
+                    var tail = code[ip - 1] == OpCode.TAIL_CALL;
+                    var argCount = code[ip++] & 0xff;
+                    var callee = stack[sp - argCount - 1];
+                    if (callee instanceof VMClosure function) {
+                        if (argCount != function.function.arity) {
+                            throw error(closure, ip, "Expected " + function.function.arity +
+                                    " arguments but got " + argCount + ".");
+                        }
+                        if (tail) {
+                            // The callee and its arguments take the place of this frame's.
+                            if (base + function.function.maxStack > stack.length) {
+                                stack = growStack(base + function.function.maxStack);
+                            }
+                            counters.calls++;
+                            closeUpvalues(base);
+                            System.arraycopy(stack, sp - argCount - 1, stack, base, argCount + 1);
+                            sp = base + argCount + 1;
+                            closure = function;
+                            code = function.function.chunk.code;
+                            constants = function.function.chunk.constants;
+                            ip = 0;
+                            frameClosures[frameCount - 1] = closure;
+                            continue;
+                        }
+                        if (frameCount == frameClosures.length) {
+                            if (frameCount == FRAMES_MAX) {
+                                throw error(closure, ip, "Stack overflow.");
+                            }
+                            growFrames();
+                        }
+                        if (sp - argCount - 1 + function.function.maxStack > stack.length) {
+                            stack = growStack(sp - argCount - 1 + function.function.maxStack);
+                        }
+                        counters.calls++;
+                        frameIps[frameCount - 1] = ip;
+                        closure = function;
+                        code = function.function.chunk.code;
+                        constants = function.function.chunk.constants;
+                        base = sp - argCount - 1;
+                        ip = 0;
+                        frameClosures[frameCount] = closure;
+                        frameBases[frameCount] = base;
+                        frameCount++;
+                    } else if (callee instanceof LoxCallable function) {
+                        if (argCount != function.arity()) {
+                            throw error(closure, ip, "Expected " + function.arity() +
+                                    " arguments but got " + argCount + ".");
+                        }
+                        var arguments = Arrays.copyOfRange(stack, sp - argCount, sp);
+                        Object result;
+                        try {
+                            result = function.call(null, arguments);
+                        } catch (RuntimeError error) {
+                            throw error(closure, ip, error.getMessage());
+                        }
+                        sp -= argCount;
+                        stack[sp - 1] = result;
+                    } else {
+                        throw error(closure, ip, "Can only call functions and classes.");
+                    }
+                }
+                case OpCode.CLOSURE -> {
+                    var function = (VMFunction) constants[(code[ip] & 0xff) << 8 | code[ip + 1] & 0xff];
+                    ip += 2;
+                    var created = new VMClosure(function);
+                    for (int i = 0; i < created.upvalues.length; i++) {
+                        var isLocal = code[ip++] == 1;
+                        var index = code[ip++] & 0xff;
+                        created.upvalues[i] = isLocal
+                                ? captureUpvalue(base + index)
+                                : closure.upvalues[index];
+                    }
+                    stack[sp++] = created;
+                }
+                case OpCode.CLOSE_UPVALUE -> {
+                    closeUpvalues(sp - 1);
+                    sp--;
+                }
+                case OpCode.RETURN -> {
+                    var result = stack[--sp];
+                    closeUpvalues(base);
+                    frameCount--;
+                    if (frameCount == 0) return;
+
+                    sp = base;
+                    stack[sp++] = result;
+                    closure = frameClosures[frameCount - 1];
+                    code = closure.function.chunk.code;
+                    constants = closure.function.chunk.constants;
+                    base = frameBases[frameCount - 1];
+                    ip = frameIps[frameCount - 1];
+                }
+                default -> throw new IllegalStateException("Unknown opcode " + code[ip - 1]);
+            }
+        }
+    }
+
+    private void growFrames() {
+        var length = frameClosures.length * 2;
+        frameClosures = Arrays.copyOf(frameClosures, length);
+        frameIps = Arrays.copyOf(frameIps, length);
+        frameBases = Arrays.copyOf(frameBases, length);
+    }
+
+    /** Grows the value stack to at least size slots, moving the open upvalues that point into it. */
+    private Object[] growStack(int size) {
+        stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+        for (var upvalue = openUpvalues; upvalue != null; upvalue = upvalue.next) {
+            upvalue.stack = stack;
+        }
+        return stack;
+    }
+
+    private VMClosure.Upvalue captureUpvalue(int index) {
+        VMClosure.Upvalue previous = null;
+        var upvalue = openUpvalues;
+        while (upvalue != null && upvalue.index > index) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.index == index) return upvalue;
+
+        counters.environments++;
+        var created = new VMClosure.Upvalue(stack, index);
+        created.next = upvalue;
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.index >= last) {
+            openUpvalues.close();
+            openUpvalues = openUpvalues.next;
+        }
+    }
+
+    private void checkNumberOperands(VMClosure closure, int ip, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw error(closure, ip, "Operands must be numbers.");
+    }
+
+    private RuntimeError error(VMClosure closure, int ip, String message) {
+        var line = closure.function.chunk.lines[ip - 1];
+        return new RuntimeError(new Token(TokenType.EOF, "", null, line), message);
+    }
+}
@@ -0,0 +1,48 @@
+package brunocamarggo.lox;
+
+final class VMClosure {
+
+    static final class Upvalue {
+        // Replaced when the VM grows its stack while this is still open.
+        Object[] stack;
+        final int index;
+        private Object closed;
+        private boolean open = true;
+        Upvalue next;
+
+        Upvalue(Object[] stack, int index) {
+            this.stack = stack;
+            this.index = index;
+        }
+
+        Object get() {
+            return open ? stack[index] : closed;
+        }
+
+        void set(Object value) {
+            if (open) {
+                stack[index] = value;
+            } else {
+                closed = value;
+            }
+        }
+
+        void close() {
+            closed = stack[index];
+            open = false;
+        }
+    }
+
+    final VMFunction function;
+    final Upvalue[] upvalues;
+
+    VMClosure(VMFunction function) {
+        this.function = function;
+        this.upvalues = new Upvalue[function.upvalueCount];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
@@ -0,0 +1,22 @@
+package brunocamarggo.lox;
+
+final class VMFunction {
+
+    final String name;
+    final Chunk chunk = new Chunk();
+    int arity = 0;
+    int upvalueCount = 0;
+    // The most stack slots a call of this uses, counting the callee, its
+    // arguments and locals and every temporary.
+    int maxStack = 1;
+
+    VMFunction(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) return "<script>";
+        return "<fn " + name + ">";
+    }
+}
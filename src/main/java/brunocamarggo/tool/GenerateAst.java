@@ -14,27 +14,29 @@ public class GenerateAst {
         }
         var outputDir = args[0];
         defineAst(outputDir, "Expr", List.of(
-                "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Call     : Expr callue, Token paren, List<Expr> arguments",
+                "Assign   : Token name, Expr value : int depth = -1, int slot = -1",
+                "Binary   : Expr left, Token operator, Expr right : int specialization",
+                "Call     : Expr callue, Token paren, List<Expr> arguments : LoxCallable target",
                 "Grouping : Expr expression",
-                "Literal  : Object value",
+                "Index    : Expr object, Token bracket, Expr index",
+                "IndexAssign : Expr object, Token bracket, Expr index, Expr value",
+                "Literal  : Object value : int line",
                 "Logical  : Expr left, Token operator, Expr right",
                 "Unary    : Token operator, Expr right",
-                "Variable : Token name"
+                "Variable : Token name : int depth = -1, int slot = -1"
         ));
 
         defineAst(outputDir, "Stmt", List.of(
-                "Block      : List<Stmt> statements",
+                "Block      : List<Stmt> statements : int slots, boolean flat",
                 "Break      : ",
                 "Continue   : ",
                 "Expression : Expr expression",
                 "For        : Stmt initializer, Expr condition, Expr increment, Stmt body",
-                "Function   : Token name, List<Token> params, List<Stmt> body",
+                "Function   : Token name, List<Token> params, List<Stmt> body : int slot, int slots, JitState jit = new JitState()",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print      : Expr expression",
-                "Return     : Token keyword, Expr value",
-                "Var        : Token name, Expr initializer",
+                "Return     : Token keyword, Expr value : boolean tailCall",
+                "Var        : Token name, Expr initializer : int slot",
                 "While      : Expr condition, Stmt body"
         ));
     }
@@ -52,9 +54,11 @@ public class GenerateAst {
         defineVisitor(writer, baseName, types);
 
         for (String type : types) {
-            var className = type.split(":")[0].trim();
-            var fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            var parts = type.split(":");
+            var className = parts[0].trim();
+            var fields = parts[1].trim();
+            var resolved = parts.length > 2 ? parts[2].trim() : "";
+            defineType(writer, baseName, className, fields, resolved);
         }
 
         writer.println();
@@ -79,7 +83,8 @@ public class GenerateAst {
     }
 
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className,
+                                   String fieldList, String resolvedList) {
         writer.println();
         writer.println("  public static class " + className + " extends " +
                 baseName + " {");
@@ -108,6 +113,14 @@ public class GenerateAst {
             writer.println("    final " + field + ";");
         }
 
+        // Fields after the second ':' are not set by the Parser; later passes
+        // and the Interpreter fill them in.
+        if (!resolvedList.isEmpty()) {
+            for (String field : resolvedList.split(", ")) {
+                writer.println("    " + field + ";");
+            }
+        }
+
         writer.println("  }");
     }
 }
@@ -0,0 +1,149 @@
+package brunocamarggo.lox;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AstSnapshotTest {
+
+    // Every kind of node, and every kind of literal.
+    private static final String SOURCE = """
+            var a = nil;
+            var b = true and !false or 1;
+            fun f(x, y) {
+              for (var i = 0; i < 3; i = i + 1) {
+                if (i == 1) continue;
+                if (i > x) break;
+                print -i * (y - 1) / 2;
+              }
+              return "done";
+            }
+            var xs = array(2);
+            xs[1] = f(1, 2);
+            while (a != nil) a = xs[0];
+            print xs[1] + " " + b;
+            {
+              var m = map();
+              m["k"] = 3.25;
+              print m["k"];
+            }
+            """;
+
+    @Test
+    void readsBackTheTreeItWrote() {
+        var hash = ScriptCache.sha256(SOURCE.getBytes(StandardCharsets.UTF_8));
+        var statements = parse(SOURCE);
+        var bytes = AstSnapshot.write(hash, statements);
+
+        var loaded = AstSnapshot.read(ByteBuffer.wrap(bytes), hash);
+
+        assertNotNull(loaded);
+        assertArrayEquals(bytes, AstSnapshot.write(hash, loaded));
+        var printed = String.join(System.lineSeparator(), "-0", "done true", "3.25", "");
+        assertEquals(printed, run(statements));
+        assertEquals(printed, run(loaded));
+    }
+
+    @Test
+    void keepsLiteralLines() {
+        var loaded = roundTrip("print\n\n42;");
+        var print = assertInstanceOf(Stmt.Print.class, loaded.get(0));
+        assertEquals(3, assertInstanceOf(Expr.Literal.class, print.expression).line);
+    }
+
+    @Test
+    void rejectsAnotherSourcesSnapshot() {
+        var bytes = AstSnapshot.write(new byte[32], parse(SOURCE));
+        var otherHash = new byte[32];
+        otherHash[31] = 1;
+        assertNull(AstSnapshot.read(ByteBuffer.wrap(bytes), otherHash));
+    }
+
+    @Test
+    void rejectsAnotherVersionsSnapshot() {
+        var bytes = AstSnapshot.write(new byte[32], parse(SOURCE));
+        var version = ByteBuffer.wrap(bytes).getInt(4);
+        ByteBuffer.wrap(bytes).putInt(4, version + 1);
+        assertNull(AstSnapshot.read(ByteBuffer.wrap(bytes), new byte[32]));
+    }
+
+    @Test
+    void rejectsDamagedSnapshots() {
+        var bytes = AstSnapshot.write(new byte[32], parse(SOURCE));
+        for (int length : new int[] {0, 7, 40, bytes.length / 2, bytes.length - 1}) {
+            assertNull(AstSnapshot.read(ByteBuffer.wrap(bytes, 0, length), new byte[32]), "length " + length);
+        }
+        var wrongMagic = bytes.clone();
+        wrongMagic[0] ^= 1;
+        assertNull(AstSnapshot.read(ByteBuffer.wrap(wrongMagic), new byte[32]));
+    }
+
+    @Test
+    void savesNextToTheScript(@TempDir Path directory) throws IOException {
+        var snapshot = AstSnapshot.pathFor(directory.resolve("script.lox"));
+        assertEquals(directory.resolve("script.loxc"), snapshot);
+
+        var hash = new byte[32];
+        AstSnapshot.save(snapshot, hash, parse(SOURCE));
+        AstSnapshot.save(snapshot, hash, parse(SOURCE));
+
+        assertNotNull(AstSnapshot.load(snapshot, hash));
+        assertNull(AstSnapshot.load(directory.resolve("missing.loxc"), hash));
+        try (var files = Files.list(directory)) {
+            assertEquals(List.of(snapshot), files.toList());
+        }
+    }
+
+    @Test
+    void savesWithTheUsualPermissions(@TempDir Path directory) throws IOException {
+        var snapshot = directory.resolve("script.loxc");
+        AstSnapshot.save(snapshot, new byte[32], parse(SOURCE));
+        var plain = Files.createFile(directory.resolve("plain"));
+
+        var view = Files.getFileAttributeView(snapshot, PosixFileAttributeView.class);
+        if (view == null) return;
+        assertEquals(Files.getPosixFilePermissions(plain), Files.getPosixFilePermissions(snapshot));
+    }
+
+    private static List<Stmt> roundTrip(String source) {
+        var bytes = AstSnapshot.write(new byte[32], parse(source));
+        return AstSnapshot.read(ByteBuffer.wrap(bytes), new byte[32]);
+    }
+
+    private static List<Stmt> parse(String source) {
+        var reporter = new ErrorReporter(new PrintStream(OutputStream.nullOutputStream()));
+        var statements = new Parser(new Scanner(source, reporter).scanTokens(), reporter).parse();
+        assertFalse(reporter.hadError);
+        return statements;
+    }
+
+    /** What running the tree prints; resolving changes it, so it gets a copy. */
+    private static String run(List<Stmt> statements) {
+        var out = new ByteArrayOutputStream();
+        var output = new Output(new PrintStream(out, true, StandardCharsets.UTF_8));
+        var interpreter = new Interpreter(output);
+        var reporter = new ErrorReporter(System.err);
+        var copy = new Optimizer().optimize(new AstCopier().copy(statements));
+        new Resolver(interpreter.globals, reporter).resolve(copy);
+        interpreter.interpret(copy);
+        output.flush();
+        assertFalse(reporter.hadError);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,83 @@
+package brunocamarggo.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class LoxArrayTest {
+
+    @Test
+    void startsAsZeros() {
+        var array = new LoxArray(3);
+        assertEquals(3, array.size());
+        assertTrue(array.isNumeric());
+        assertEquals("[0, 0, 0]", array.toString());
+    }
+
+    @Test
+    void staysNumericWhileOnlyHoldingNumbers() {
+        var array = new LoxArray(0);
+        for (int i = 0; i < 100; i++) array.add((double) i);
+        array.set(5.0, 0.5);
+
+        assertTrue(array.isNumeric());
+        assertEquals(100, array.size());
+        assertEquals(0.5, array.getNumber(5.0));
+        assertEquals(99.0, array.get(99.0));
+    }
+
+    @Test
+    void movesToObjectsOnTheFirstOtherValueSet() {
+        var array = new LoxArray(0);
+        for (int i = 0; i < 20; i++) array.add((double) i);
+        array.set(3.0, "three");
+
+        assertFalse(array.isNumeric());
+        assertEquals("three", array.get(3.0));
+        assertEquals(19.0, array.get(19.0));
+        array.set(3.0, 3.0);
+        assertFalse(array.isNumeric());
+    }
+
+    @Test
+    void movesToObjectsOnTheFirstOtherValueAdded() {
+        var array = new LoxArray(8);
+        array.set(7.0, 7.0);
+        array.add(null);
+        array.add(true);
+
+        assertFalse(array.isNumeric());
+        assertEquals(10, array.size());
+        assertEquals(7.0, array.get(7.0));
+        assertEquals("[0, 0, 0, 0, 0, 0, 0, 7, nil, true]", array.toString());
+    }
+
+    @Test
+    void rejectsBadIndexes() {
+        var array = new LoxArray(2);
+        assertThrows(RuntimeError.class, () -> array.get(2.0));
+        assertThrows(RuntimeError.class, () -> array.get(-1.0));
+        assertThrows(RuntimeError.class, () -> array.get(0.5));
+        assertThrows(RuntimeError.class, () -> array.set("0", 1.0));
+    }
+
+    @Test
+    void cantGrowPastMaxLength() {
+        var array = new LoxArray(LoxArray.MAX_LENGTH);
+        assertThrows(RuntimeError.class, () -> array.add(1.0));
+        assertThrows(RuntimeError.class, () -> array.add("x"));
+        assertEquals(LoxArray.MAX_LENGTH, array.size());
+    }
+
+    @Test
+    void arrayNativeRejectsLengthsPastMaxLength() {
+        var array = Natives.all().get("array");
+        assertThrows(RuntimeError.class, () -> array.call(null, new Object[] {LoxArray.MAX_LENGTH + 1.0}));
+        assertThrows(RuntimeError.class, () -> array.call(null, new Object[] {-1.0}));
+        assertThrows(RuntimeError.class, () -> array.call(null, new Object[] {1.5}));
+        assertEquals(0, ((LoxArray) array.call(null, new Object[] {0.0})).size());
+    }
+}
@@ -0,0 +1,76 @@
+package brunocamarggo.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class LoxMapTest {
+
+    @Test
+    void readsWhatWasPut() {
+        var map = new LoxMap();
+        map.put("a", 1.0);
+        map.put(2.0, "two");
+        map.put(true, null);
+
+        assertEquals(3, map.size());
+        assertEquals(1.0, map.get("a"));
+        assertEquals("two", map.get(2.0));
+        assertNull(map.get(true));
+        assertNull(map.get("missing"));
+    }
+
+    @Test
+    void replacingAValueKeepsTheSize() {
+        var map = new LoxMap();
+        map.put("a", 1.0);
+        map.put("a", 2.0);
+        assertEquals(1, map.size());
+        assertEquals(2.0, map.get("a"));
+    }
+
+    @Test
+    void keepsKeysWhoseHashesCollide() {
+        // "Aa" and "BB" have the same hashCode, as do "AaAa", "AaBB", "BBAa" and "BBBB".
+        var keys = new String[] {"Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB"};
+        var map = new LoxMap();
+        for (int i = 0; i < keys.length; i++) map.put(keys[i], (double) i);
+
+        assertEquals(keys.length, map.size());
+        for (int i = 0; i < keys.length; i++) assertEquals((double) i, map.get(keys[i]), keys[i]);
+    }
+
+    @Test
+    void keepsEveryEntryAcrossGrowth() {
+        var map = new LoxMap();
+        for (int i = 0; i < 10_000; i++) map.put((double) i, "v" + i);
+
+        assertEquals(10_000, map.size());
+        for (int i = 0; i < 10_000; i++) assertEquals("v" + i, map.get((double) i));
+        assertEquals(10_000, map.keys().size());
+    }
+
+    @Test
+    void aConcatenatedStringFindsTheLiteralsEntry() {
+        var half = "x".repeat(40);
+        var built = LoxString.concat(half, half);
+        assertInstanceOf(LoxString.class, built);
+
+        var map = new LoxMap();
+        map.put(half + half, 1.0);
+        assertEquals(1.0, map.get(built));
+        map.put(built, 2.0);
+        assertEquals(1, map.size());
+        assertInstanceOf(String.class, map.keys().get(0.0));
+    }
+
+    @Test
+    void nilCantBeAKey() {
+        var map = new LoxMap();
+        assertThrows(RuntimeError.class, () -> map.put(null, 1.0));
+        assertThrows(RuntimeError.class, () -> map.get(null));
+    }
+}
@@ -0,0 +1,100 @@
+package brunocamarggo.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class OptimizerTest {
+
+    @Test
+    void foldsArithmeticOnLiterals() {
+        var literal = printed("print 1 + 2 * (3 - 1);");
+        assertEquals(5.0, literal.value);
+    }
+
+    @Test
+    void foldsComparisonsAndNegation() {
+        assertEquals(true, printed("print -2 < 1;").value);
+        assertEquals(false, printed("print !(1 == 1);").value);
+    }
+
+    @Test
+    void foldsConcatenationToAPlainString() {
+        var literal = printed("print \"a\" + \"b\" + 1;");
+        assertEquals("ab1", literal.value);
+    }
+
+    @Test
+    void foldedLiteralKeepsTheOperatorsLine() {
+        var literal = printed("print 1\n+\n2;");
+        assertEquals(2, literal.line);
+    }
+
+    @Test
+    void leavesAFailingOperationForRuntime() {
+        var statement = assertInstanceOf(Stmt.Print.class, optimize("print 1 / 0;").get(0));
+        assertInstanceOf(Expr.Binary.class, statement.expression);
+    }
+
+    @Test
+    void dropsConstantlyFalseBranchesAndLoops() {
+        assertEquals(List.of(), optimize("if (false) print 1; while (nil) print 2;"));
+        var kept = optimize("if (true) print 1; else print 2;");
+        assertInstanceOf(Stmt.Print.class, kept.get(0));
+    }
+
+    @Test
+    void runtimeErrorsInUnfoldedCodeReportTheirLine() {
+        var source = """
+                var a = 1;
+                print "before";
+                print 2 * (1 /
+                  0);
+                print "after";
+                """;
+        for (var backend : LoxEngine.Backend.values()) {
+            var out = new ByteArrayOutputStream();
+            var err = new ByteArrayOutputStream();
+            var context = new LoxEngine(backend).newContext(
+                    new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(err, true, StandardCharsets.UTF_8));
+
+            assertEquals(LoxContext.Result.RUNTIME_ERROR, context.eval(source), backend.name());
+            assertEquals("before" + System.lineSeparator(), out.toString(StandardCharsets.UTF_8), backend.name());
+            var error = err.toString(StandardCharsets.UTF_8);
+            assertTrue(error.contains("Error division by 0.") && error.contains("[line 3]"), backend + ": " + error);
+        }
+    }
+
+    @Test
+    void operandErrorsSkippedByFoldingStillReportTheirLine() {
+        for (var backend : LoxEngine.Backend.values()) {
+            var err = new ByteArrayOutputStream();
+            var context = new LoxEngine(backend).newContext(
+                    new PrintStream(OutputStream.nullOutputStream()), new PrintStream(err, true, StandardCharsets.UTF_8));
+
+            assertEquals(LoxContext.Result.RUNTIME_ERROR, context.eval("var a = 1;\nprint -\"x\";"), backend.name());
+            var error = err.toString(StandardCharsets.UTF_8);
+            assertTrue(error.contains("[line 2]"), backend + ": " + error);
+        }
+    }
+
+    private static Expr.Literal printed(String source) {
+        var statement = assertInstanceOf(Stmt.Print.class, optimize(source).get(0));
+        return assertInstanceOf(Expr.Literal.class, statement.expression);
+    }
+
+    private static List<Stmt> optimize(String source) {
+        var reporter = new ErrorReporter(new PrintStream(OutputStream.nullOutputStream()));
+        var statements = new Parser(new Scanner(source, reporter).scanTokens(), reporter).parse();
+        assertFalse(reporter.hadError, source);
+        return new Optimizer().optimize(statements);
+    }
+}
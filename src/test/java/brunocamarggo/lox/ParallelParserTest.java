@@ -0,0 +1,126 @@
+package brunocamarggo.lox;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ParallelParserTest {
+
+    private static final byte[] NO_HASH = new byte[32];
+
+    private static final String DECLARATIONS = """
+            var a = 1;
+            fun f(n) {
+              if (n < 1) { return "}; {"; }
+              return f(n - 1); // ; } {
+            }
+            if (a > 0) {
+              print "yes";
+            }
+            /* } ;
+               else */
+            else {
+              print "no";
+            }
+            if (a) print 1; else print 2;
+            if (a) {} // then
+              else {}
+            """;
+
+    @Test
+    void cutsOnlyBetweenDeclarations() {
+        var source = DECLARATIONS.repeat(50).toCharArray();
+        var chunks = ParallelParser.split(source, 1);
+        assertTrue(chunks.size() > 50);
+
+        var start = 0;
+        var line = 1;
+        for (var chunk : chunks) {
+            assertEquals(start, chunk.start());
+            assertEquals(line, chunk.line());
+            assertFalse(ParallelParser.followedByElse(source, chunk.end()));
+            // Each chunk is whole declarations, so it parses on its own.
+            assertFalse(parseSequentially(new String(source, chunk.start(), chunk.end() - chunk.start())).hadError,
+                    "chunk at line " + chunk.line());
+            for (int i = chunk.start(); i < chunk.end(); i++) {
+                if (source[i] == '\n') line++;
+            }
+            start = chunk.end();
+        }
+        assertEquals(source.length, start);
+    }
+
+    @Test
+    void keepsTheRestWholeAfterAStrayClosingBrace() {
+        var source = "print 1; } print 2; print 3; print 4;".toCharArray();
+        var chunks = ParallelParser.split(source, 1);
+        assertEquals(2, chunks.size());
+        assertEquals(source.length, chunks.get(1).end());
+    }
+
+    @Test
+    void findsElseAfterWhitespaceAndComments() {
+        assertTrue(followedByElse(" \n\t else"));
+        assertTrue(followedByElse(" // x\n /* y */ else {"));
+        assertTrue(followedByElse(" /* never closed"));
+        assertFalse(followedByElse(" elsewhere"));
+        assertFalse(followedByElse(" print 1;"));
+        assertFalse(followedByElse(" / 2"));
+        assertFalse(followedByElse(""));
+    }
+
+    @Test
+    void parsesLikeTheSequentialParser() {
+        var source = DECLARATIONS.repeat(2 * ParallelParser.MIN_CHUNK / DECLARATIONS.length() + 100);
+        assertTrue(ParallelParser.split(source.toCharArray(), ParallelParser.MIN_CHUNK).size() > 1);
+
+        var reporter = new ErrorReporter(new PrintStream(OutputStream.nullOutputStream()));
+        var statements = ParallelParser.parse(source, reporter);
+
+        assertFalse(reporter.hadError);
+        var expected = new Parser(new Scanner(source, reporter).scanTokens(), reporter).parse();
+        assertArrayEquals(AstSnapshot.write(NO_HASH, expected), AstSnapshot.write(NO_HASH, statements));
+    }
+
+    @Test
+    void reportsErrorsAsTheSequentialParserDoes() {
+        var block = DECLARATIONS.repeat(ParallelParser.MIN_CHUNK / DECLARATIONS.length() + 10);
+        var source = block + "var = 1;\nprint (2;\n" + block + "print 3 +;\n" + block;
+
+        var err = new ByteArrayOutputStream();
+        var reporter = new ErrorReporter(new PrintStream(err, true, StandardCharsets.UTF_8));
+        ParallelParser.parse(source, reporter);
+
+        var expected = parseSequentially(source);
+        assertTrue(reporter.hadError);
+        assertEquals(expected.errors(), err.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void parsesSmallSourcesInOnePiece() {
+        var reporter = new ErrorReporter(new PrintStream(OutputStream.nullOutputStream()));
+        List<Stmt> statements = ParallelParser.parse("print 1; print 2;", reporter);
+        assertEquals(2, statements.size());
+    }
+
+    private static boolean followedByElse(String text) {
+        return ParallelParser.followedByElse(text.toCharArray(), 0);
+    }
+
+    private record Parsed(boolean hadError, String errors) {}
+
+    private static Parsed parseSequentially(String source) {
+        var err = new ByteArrayOutputStream();
+        var reporter = new ErrorReporter(new PrintStream(err, true, StandardCharsets.UTF_8));
+        new Parser(new Scanner(source, reporter).scanTokens(), reporter).parse();
+        return new Parsed(reporter.hadError, err.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,69 @@
+package brunocamarggo.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class ScriptCacheTest {
+
+    private final LoxEngine engine = new LoxEngine();
+
+    @Test
+    void returnsTheSameScriptForTheSameSource() {
+        var cache = new ScriptCache(engine, 4);
+        var first = cache.get("print 1;");
+
+        assertSame(first, cache.get("print 1;"));
+        assertNotSame(first, cache.get("print 2;"));
+        assertEquals(new ScriptCache.Stats(1, 2, 0, 2), cache.stats());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsed() {
+        var cache = new ScriptCache(engine, 2);
+        var a = cache.get("print \"a\";");
+        var b = cache.get("print \"b\";");
+        cache.get("print \"a\";");
+        cache.get("print \"c\";");
+
+        assertEquals(new ScriptCache.Stats(1, 3, 1, 2), cache.stats());
+        assertSame(a, cache.get("print \"a\";"));
+        assertNotSame(b, cache.get("print \"b\";"));
+        assertEquals(new ScriptCache.Stats(2, 4, 2, 2), cache.stats());
+    }
+
+    @Test
+    void clearingKeepsTheCounts() {
+        var cache = new ScriptCache(engine, 2);
+        cache.get("print 1;");
+        cache.clear();
+        cache.get("print 1;");
+        assertEquals(new ScriptCache.Stats(0, 2, 0, 1), cache.stats());
+    }
+
+    @Test
+    void cachedScriptsRunInFreshContexts() {
+        var cache = new ScriptCache(engine, 1);
+        for (int i = 0; i < 3; i++) {
+            var out = new ByteArrayOutputStream();
+            var context = engine.newContext(new PrintStream(out, true, StandardCharsets.UTF_8),
+                    new PrintStream(OutputStream.nullOutputStream()));
+
+            assertEquals(LoxContext.Result.OK, context.run(cache.get("var a = 40; print a + 2;")));
+            assertEquals("42" + System.lineSeparator(), out.toString(StandardCharsets.UTF_8));
+        }
+        assertEquals(new ScriptCache.Stats(2, 1, 0, 1), cache.stats());
+    }
+
+    @Test
+    void needsRoomForAScript() {
+        assertThrows(IllegalArgumentException.class, () -> new ScriptCache(engine, 0));
+    }
+}
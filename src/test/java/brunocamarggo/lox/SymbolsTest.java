@@ -0,0 +1,58 @@
+package brunocamarggo.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class SymbolsTest {
+
+    @Test
+    void parsesIntegers() {
+        assertParsesLikeJava("0");
+        assertParsesLikeJava("7");
+        assertParsesLikeJava("007");
+        assertParsesLikeJava("123456789");
+    }
+
+    @Test
+    void parsesFractions() {
+        assertParsesLikeJava("0.1");
+        assertParsesLikeJava("1.5");
+        assertParsesLikeJava("1.05");
+        assertParsesLikeJava("3.000");
+        assertParsesLikeJava("0.000000000000001");
+    }
+
+    @Test
+    void parsesAroundTheFastPathsDigitLimit() {
+        assertParsesLikeJava("123456789012345");
+        assertParsesLikeJava("1234567890.12345");
+        assertParsesLikeJava("999999999999999");
+        assertParsesLikeJava("1234567890123456");
+        assertParsesLikeJava("9007199254740993");
+        assertParsesLikeJava("0.1234567890123456789");
+        assertParsesLikeJava("12345678901234567890123");
+    }
+
+    @Test
+    void parsesOnlyTheGivenRange() {
+        var source = "x=12.5;".toCharArray();
+        assertEquals(12.5, Symbols.parseNumber(source, 2, 6));
+    }
+
+    @Test
+    void matchesParseDoubleOnRandomNumbers() {
+        var random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            var integer = Long.toUnsignedString(random.nextLong() >>> random.nextInt(64));
+            var number = random.nextBoolean() ? integer : integer + "." + Long.toUnsignedString(random.nextLong() >>> random.nextInt(64));
+            assertParsesLikeJava(number);
+        }
+    }
+
+    private static void assertParsesLikeJava(String number) {
+        var chars = number.toCharArray();
+        assertEquals(Double.parseDouble(number), Symbols.parseNumber(chars, 0, chars.length), number);
+    }
+}